@@ -20,6 +20,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 import mkTails.algorithms.graphops.IOperation;
@@ -28,16 +30,23 @@ import mkTails.algorithms.graphops.PartitionMultiSplit;
 import mkTails.algorithms.graphops.PartitionSplit;
 import mkTails.benchmarks.PerformanceMetrics;
 import mkTails.benchmarks.TimedTask;
+import mkTails.invariants.BinaryInvariant;
 import mkTails.invariants.CExamplePath;
 import mkTails.invariants.ITemporalInvariant;
 import mkTails.invariants.TemporalInvariantSet;
 import mkTails.invariants.constraints.TempConstrainedInvariant;
+import mkTails.invariants.fsmcheck.FsmModelChecker;
+import mkTails.invariants.fsmcheck.TracingStateSet;
 import mkTails.main.AbstractMain;
 import mkTails.model.EventNode;
 import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
+import mkTails.model.PartitionGraphOverlay;
+import mkTails.model.event.EventType;
+import mkTails.model.interfaces.IGraph;
 import mkTails.model.interfaces.ITransition;
 import mkTails.util.InternalSynopticException;
+import mkTails.util.Parallel;
 
 /**
  * Partition graphs can be transformed using two algorithms -- coarsening and
@@ -546,14 +555,17 @@ public class Bisimulation {
 			PartitionMultiSplit splitOp) {
 
 		// Perform the split.
-		IOperation rewindOperation = pGraph.apply(splitOp);
-
-		// See if splitting resolved the violation.
-		CExamplePath<Partition> violation = TemporalInvariantSet
-				.getCounterExample(inv, pGraph);
-
-		// Undo the split (rewind) to get back the input graph.
-		pGraph.apply(rewindOperation);
+		int checkpoint = pGraph.checkpoint();
+		CExamplePath<Partition> violation;
+		try {
+			pGraph.apply(splitOp);
+
+			// See if splitting resolved the violation.
+			violation = TemporalInvariantSet.getCounterExample(inv, pGraph);
+		} finally {
+			// Undo the split to get back the input graph.
+			pGraph.rollback(checkpoint);
+		}
 
 		// The invariant has more violations after the split.
 		if (violation != null) {
@@ -564,32 +576,184 @@ public class Bisimulation {
 		return true;
 	}
 
+	/**
+	 * Checks whether each of the splitOps makes pGraph satisfy the
+	 * unconstrained invariant inv. Rather than being applied to pGraph and
+	 * rewound, every split is applied in its own overlay of pGraph (see
+	 * PartitionGraphOverlay), and the overlays are model checked concurrently.
+	 * pGraph is not modified.
+	 * 
+	 * @param inv
+	 *            The unconstrained invariant to check for satisfiability.
+	 * @param pGraph
+	 *            The partition graph that the splits apply to.
+	 * @param splitOps
+	 *            The split operations to check
+	 * @param threads
+	 *            The number of threads to check the splits on
+	 * @return for each split in splitOps, whether the split makes the graph
+	 *         satisfy the invariant
+	 */
+	private static boolean[] splitsSatisfyInvariantGlobally(
+			final ITemporalInvariant inv, final PartitionGraph pGraph,
+			final List<PartitionMultiSplit> splitOps, int threads) {
+		assert !(inv instanceof TempConstrainedInvariant<?>);
+
+		// Overlays read the adjacency of pGraph from its transition cache,
+		// which must not be filled in concurrently.
+		pGraph.cacheAllAdjacentNodes();
+
+		final boolean[] satisfies = new boolean[splitOps.size()];
+		Parallel.forEachIndex(threads, splitOps.size(), new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				PartitionGraphOverlay overlay = new PartitionGraphOverlay(
+						pGraph, splitOps.get(i));
+				TracingStateSet<Partition> stateset = FsmModelChecker
+						.newTracingSet((BinaryInvariant) inv);
+				satisfies[i] = true;
+				for (Map.Entry<Partition, TracingStateSet<Partition>> e : FsmModelChecker
+						.runChecker(stateset, overlay, true).entrySet()) {
+					if (e.getKey().isTerminal()
+							&& e.getValue().failpath() != null) {
+						satisfies[i] = false;
+						break;
+					}
+				}
+			}
+		});
+		return satisfies;
+	}
+
 	/**
 	 * Performs the splitOp on the pGraph and then checks if there is a
 	 * violation of invariant inv in a specific subgraph of pGraph starting at
 	 * startPart and ending at endPart. This is accomplished by localized model
 	 * checking which starts at startPart (rather than the initial node) and
-	 * stops at endPart (rather than the terminal node).
+	 * stops at endPart (rather than the terminal node).<br />
+	 * <br />
+	 * The subgraph is made up of the partitions that, after the split, hold
+	 * the events of the counter-example path up to endPart. The finite state
+	 * machine of inv reaches startPart along the prefix of the path, and the
+	 * partitions that hold endPart's events have no outgoing transitions in
+	 * the subgraph. The cost of the check is thus proportional to the
+	 * counter-example path rather than to pGraph. The failure states of the
+	 * constrained state machines are absorbing, and every partition reaches
+	 * the terminal node, so a violation in the subgraph is also a violation
+	 * in pGraph.
 	 * 
 	 * @param inv
 	 *            The invariant to check for satisfiability after the splitOp.
 	 * @param pGraph
 	 *            The partition graph to apply to the splitOp to.
-	 * @param startPart
-	 *            The partition on which to start model checking
-	 * @param endPart
-	 *            The partition on which to end model checking
+	 * @param counterexampleTrace
+	 *            The counter-example path, whose violation subpath starts at
+	 *            startPart and ends at endPart
 	 * @param splitOp
 	 *            The split operation to apply to pGraph
 	 * @return true if the split makes the subgraph between startPart and
 	 *         endPart satisfy the invariant, and false otherwise.
 	 */
 	private static boolean splitSatisfiesInvariantLocally(
-			ITemporalInvariant inv, PartitionGraph pGraph, Partition startPart,
-			Partition endPart, PartitionMultiSplit splitOp) {
+			ITemporalInvariant inv, PartitionGraph pGraph,
+			CExamplePath<Partition> counterexampleTrace,
+			PartitionMultiSplit splitOp) {
 
-		// TODO: Implement this.
-		return false;
+		// Collect the events before the split moves some of them to new
+		// partitions.
+		List<EventNode> pathEvents = new ArrayList<EventNode>();
+		for (int i = 0; i < counterexampleTrace.violationEnd; i++) {
+			pathEvents.addAll(counterexampleTrace.path.get(i).getEventNodes());
+		}
+		List<EventNode> endEvents = new ArrayList<EventNode>(
+				counterexampleTrace.path.get(counterexampleTrace.violationEnd)
+						.getEventNodes());
+
+		// Perform the split.
+		int checkpoint = pGraph.checkpoint();
+		boolean violated = false;
+		try {
+			pGraph.apply(splitOp);
+
+			Set<Partition> endParts = new LinkedHashSet<Partition>();
+			for (EventNode e : endEvents) {
+				endParts.add(e.getParent());
+			}
+			Set<Partition> parts = new LinkedHashSet<Partition>();
+			parts.add(pGraph.getDummyInitialNode());
+			for (EventNode e : pathEvents) {
+				parts.add(e.getParent());
+			}
+			parts.addAll(endParts);
+
+			LocalSubgraph subgraph = new LocalSubgraph(pGraph, parts, endParts);
+			TracingStateSet<Partition> stateset = FsmModelChecker
+					.newTracingSet((BinaryInvariant) inv);
+			for (TracingStateSet<Partition> states : FsmModelChecker
+					.runChecker(stateset, subgraph, false).values()) {
+				if (states.failpath() != null) {
+					violated = true;
+					break;
+				}
+			}
+		} finally {
+			// Undo the split to get back the input graph.
+			pGraph.rollback(checkpoint);
+		}
+
+		return !violated;
+	}
+
+	/**
+	 * The subgraph of a partition graph that is induced by a set of its
+	 * partitions, in which a set of end partitions have no outgoing
+	 * transitions.
+	 */
+	private static class LocalSubgraph implements IGraph<Partition> {
+		private final PartitionGraph	pGraph;
+		private final Set<Partition>	parts;
+		private final Set<Partition>	endParts;
+
+		LocalSubgraph(PartitionGraph pGraph, Set<Partition> parts,
+				Set<Partition> endParts) {
+			this.pGraph = pGraph;
+			this.parts = parts;
+			this.endParts = endParts;
+		}
+
+		@Override
+		public Set<Partition> getNodes() {
+			return parts;
+		}
+
+		@Override
+		public Set<String> getRelations() {
+			return pGraph.getRelations();
+		}
+
+		@Override
+		public Partition getDummyInitialNode() {
+			return pGraph.getDummyInitialNode();
+		}
+
+		@Override
+		public Set<Partition> getAdjacentNodes(Partition node) {
+			Set<Partition> adjacent = new LinkedHashSet<Partition>();
+			if (endParts.contains(node)) {
+				return adjacent;
+			}
+			for (Partition succ : pGraph.getAdjacentNodes(node)) {
+				if (parts.contains(succ)) {
+					adjacent.add(succ);
+				}
+			}
+			return adjacent;
+		}
+
+		@Override
+		public void add(Partition node) {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	/**
@@ -611,7 +775,7 @@ public class Bisimulation {
 	 */
 	private static IOperation getInvSatisfyingSplits(
 			List<CExamplePath<Partition>> counterexampleTraces,
-			PartitionGraph pGraph,
+			final PartitionGraph pGraph,
 			HashMap<Partition, PartitionMultiSplit> splitsToDoByPartition,
 			Set<ITemporalInvariant> newlySatisfiedInvariants) {
 
@@ -620,13 +784,13 @@ public class Bisimulation {
 
 		// TODO: we are considering counter-example traces in an arbitrary
 		// order. This heuristic should be turned into a customizable strategy.
-		for (CExamplePath<Partition> counterexampleTrace : counterexampleTraces) {
+		for (final CExamplePath<Partition> counterexampleTrace : counterexampleTraces) {
 			// logger.fine("Considering counterexample: "
 			// + counterexampleTrace.toString());
 
 			// The invariant that we will attempt to satisfy globally with a
 			// single split.
-			ITemporalInvariant inv = counterexampleTrace.invariant;
+			final ITemporalInvariant inv = counterexampleTrace.invariant;
 
 			// Skip to next counter-example if we have previously recorded a
 			// split that satisfies the invariant corresponding to this
@@ -649,12 +813,6 @@ public class Bisimulation {
 				arbitrarySplit = candidateSplits.get(0);
 			}
 
-			// A split that satisfies the invariant locally (within the subgraph
-			// where the violation was found) but not globally (in the entire
-			// partition graph). Only applied if a globally-satisfying split is
-			// not found
-			PartitionMultiSplit locallySatisfyingSplit = null;
-
 			// logger.fine("candidateSplits are: " +
 			// candidateSplits.toString());
 
@@ -668,6 +826,8 @@ public class Bisimulation {
 			// b. If such a split exists, integrate it into whatever splits we
 			// might have found earlier (for previous counter-examples).
 			//
+			List<PartitionMultiSplit> splitOps = new ArrayList<PartitionMultiSplit>(
+					candidateSplits.size());
 			for (PartitionSplit candidateSplit : candidateSplits) {
 				if (main.options.performExtraChecks) {
 					// getSplits() should never generate invalid splits.
@@ -676,10 +836,42 @@ public class Bisimulation {
 								"getSplits() generated an invalid split.");
 					}
 				}
+				splitOps.add(new PartitionMultiSplit(candidateSplit));
+			}
+
+			// Constrained invariants are checked locally before they are
+			// checked in the entire graph.
+			if (inv instanceof TempConstrainedInvariant<?>) {
+				recordConstrainedSplit(inv, splitOps,
+						new Predicate<PartitionMultiSplit>() {
+							@Override
+							public boolean test(PartitionMultiSplit splitOp) {
+								return splitSatisfiesInvariantLocally(inv,
+										pGraph, counterexampleTrace, splitOp);
+							}
+						}, new Predicate<PartitionMultiSplit>() {
+							@Override
+							public boolean test(PartitionMultiSplit splitOp) {
+								return splitSatisfiesInvariantGlobally(inv,
+										pGraph, splitOp);
+							}
+						}, splitsToDoByPartition, newlySatisfiedInvariants);
+				continue;
+			}
 
-				PartitionMultiSplit splitOp = new PartitionMultiSplit(
-						candidateSplit);
-				Partition partitionBeingSplit = candidateSplit.getPartition();
+			// With several threads, the splits for an unconstrained invariant
+			// are checked concurrently in overlays of pGraph, one batch of
+			// splits at a time so that the search still stops soon after the
+			// first satisfying split. The split that is picked is the one that
+			// a single thread picks.
+			int threads = main.options.threads;
+			boolean checkInOverlays = threads > 1
+					&& main.options.useFSMChecker;
+			boolean[] batchSatisfies = null;
+			int batchStart = 0;
+
+			for (int i = 0; i < splitOps.size(); i++) {
+				PartitionMultiSplit splitOp = splitOps.get(i);
 
 				// TODO: we check satisfiability of each split _independently_.
 				// This means that we are looking for very rare splits that
@@ -688,82 +880,131 @@ public class Bisimulation {
 				// invariant, and (2) continue searching for more such splits on
 				// the _mutated_ pGraph.
 
-				if (splitSatisfiesInvariantGlobally(inv, pGraph, splitOp)) {
-					// If we already have a split for that partition,
-					// incorporate the new split into it.
-					if (splitsToDoByPartition.containsKey(partitionBeingSplit)) {
-						splitsToDoByPartition.get(partitionBeingSplit)
-								.incorporate(splitOp);
-						logger.fine("Incorporating new split by partition: "
-								+ splitOp.toString());
-					} else {
-						// Otherwise, record this split as the only one for this
-						// partition
-						splitsToDoByPartition.put(partitionBeingSplit, splitOp);
-						logger.fine("New split by partition: "
-								+ splitOp.toString());
+				boolean satisfies;
+				if (checkInOverlays) {
+					if (batchSatisfies == null
+							|| i >= batchStart + batchSatisfies.length) {
+						batchStart = i;
+						batchSatisfies = splitsSatisfyInvariantGlobally(inv,
+								pGraph, splitOps.subList(i,
+										Math.min(splitOps.size(), i + threads)),
+								threads);
 					}
+					satisfies = batchSatisfies[i - batchStart];
+				} else {
+					satisfies = splitSatisfiesInvariantGlobally(inv, pGraph,
+							splitOp);
+				}
 
+				if (satisfies) {
+					recordSplit(splitOp, splitsToDoByPartition);
 					// Remember that we can resolve this invariant
 					// violation.
 					newlySatisfiedInvariants.add(inv);
 					// Found the split that completely satisfies the
 					// invariant, no need to consider other splits.
 					break;
-
-				}
-
-				// Check if split satisfies the invariant locally (specifically
-				// in the subgraph where the violation was found)
-				else if (locallySatisfyingSplit == null
-						&& inv instanceof TempConstrainedInvariant<?>) {
-
-					// Get start and end of violation subgraph
-					Partition startPart = counterexampleTrace.path
-							.get(counterexampleTrace.violationStart);
-					Partition endPart = counterexampleTrace.path
-							.get(counterexampleTrace.violationEnd);
-
-					// Store the split if the invariant is locally satisfied
-					if (splitSatisfiesInvariantLocally(inv, pGraph, startPart,
-							endPart, splitOp)) {
-						locallySatisfyingSplit = splitOp;
-					}
 				}
 			}
+		}
+		return arbitrarySplit;
+	}
 
-			// If we didn't find a globally-satisfying split but did find a
-			// locally-satisfying one, record it
-			if (locallySatisfyingSplit != null) {
+	/**
+	 * Looks for a split among splitOps that resolves the violations of the
+	 * constrained invariant inv, and records it in splitsToDoByPartition. The
+	 * splits are first checked locally, in the subgraph where the violation
+	 * was found: a split that leaves a violation there leaves it in the entire
+	 * graph, too, and so is not checked globally. The first split that
+	 * satisfies inv globally is recorded, and inv is added to
+	 * newlySatisfiedInvariants. If there is no such split, the first split
+	 * that satisfies inv locally is recorded instead.
+	 * 
+	 * @param inv
+	 *            The constrained invariant to satisfy
+	 * @param splitOps
+	 *            The candidate splits, in the order in which to check them
+	 * @param satisfiesLocally
+	 *            Checks whether a split satisfies inv locally
+	 * @param satisfiesGlobally
+	 *            Checks whether a split satisfies inv in the entire graph
+	 * @param splitsToDoByPartition
+	 *            The splits recorded by partition
+	 * @param newlySatisfiedInvariants
+	 *            The invariants that the recorded splits satisfy globally
+	 */
+	private static void recordConstrainedSplit(ITemporalInvariant inv,
+			List<PartitionMultiSplit> splitOps,
+			Predicate<PartitionMultiSplit> satisfiesLocally,
+			Predicate<PartitionMultiSplit> satisfiesGlobally,
+			Map<Partition, PartitionMultiSplit> splitsToDoByPartition,
+			Set<ITemporalInvariant> newlySatisfiedInvariants) {
 
-				// Get partition to be split
-				Partition partitionBeingSplit = locallySatisfyingSplit
-						.getPartition();
+		// A split that satisfies the invariant locally (within the subgraph
+		// where the violation was found) but not globally (in the entire
+		// partition graph). Only applied if a globally-satisfying split is
+		// not found
+		PartitionMultiSplit locallySatisfyingSplit = null;
 
-				// If we already have a split for that partition, incorporate
-				// the new split into it.
-				if (splitsToDoByPartition.containsKey(partitionBeingSplit)) {
-					splitsToDoByPartition.get(partitionBeingSplit).incorporate(
-							locallySatisfyingSplit);
-					logger.fine("Incorporating new locally-satisfying split by partition: "
-							+ locallySatisfyingSplit.toString());
-				} else {
-					// Otherwise, record this split as the only one for this
-					// partition
-					splitsToDoByPartition.put(partitionBeingSplit,
-							locallySatisfyingSplit);
-					logger.fine("New split by partition: "
-							+ locallySatisfyingSplit.toString());
-				}
+		for (PartitionMultiSplit splitOp : splitOps) {
+			if (!satisfiesLocally.test(splitOp)) {
+				continue;
+			}
+			if (satisfiesGlobally.test(splitOp)) {
+				recordSplit(splitOp, splitsToDoByPartition);
+				newlySatisfiedInvariants.add(inv);
+				return;
+			}
+			if (locallySatisfyingSplit == null) {
+				locallySatisfyingSplit = splitOp;
 			}
 		}
-		return arbitrarySplit;
+
+		// We didn't find a globally-satisfying split, so record the
+		// locally-satisfying one, if any.
+		if (locallySatisfyingSplit != null) {
+			logger.fine("Recording locally-satisfying split: "
+					+ locallySatisfyingSplit.toString());
+			recordSplit(locallySatisfyingSplit, splitsToDoByPartition);
+		}
+	}
+
+	/**
+	 * Records splitOp in splitsToDoByPartition, incorporating it into the
+	 * split already recorded for its partition, if any.
+	 */
+	private static void recordSplit(PartitionMultiSplit splitOp,
+			Map<Partition, PartitionMultiSplit> splitsToDoByPartition) {
+		Partition partitionBeingSplit = splitOp.getPartition();
+		// If we already have a split for that partition, incorporate the new
+		// split into it.
+		if (splitsToDoByPartition.containsKey(partitionBeingSplit)) {
+			splitsToDoByPartition.get(partitionBeingSplit)
+					.incorporate(splitOp);
+			logger.fine("Incorporating new split by partition: "
+					+ splitOp.toString());
+		} else {
+			// Otherwise, record this split as the only one for this partition
+			splitsToDoByPartition.put(partitionBeingSplit, splitOp);
+			logger.fine("New split by partition: " + splitOp.toString());
+		}
 	}
 
 	/**
 	 * This is basically the k-Tails algorithm except that it respects
 	 * invariants -- if any are violated during a merge, the particular merge is
-	 * aborted.
+	 * aborted.<br />
+	 * <br />
+	 * Every pair of partitions is tried at most once, off a worklist of
+	 * partitions. Partitions are taken from the worklist in the order of
+	 * {@code pGraph.getNodes()}, and each one is tried, in that same order,
+	 * against the other partitions of its event type that are k-equivalent to
+	 * it and that it was not tried against before. A partition that absorbs
+	 * another in an accepted merge keeps being tried against the rest. Pairs
+	 * that are not k-equivalent need not be tried again after a merge: two
+	 * partitions with equal k-string sets merge into a partition with that
+	 * same set, and every path through it reads a string that a path through
+	 * either of them read before, so no partition's k-string set changes.
 	 * 
 	 * @param pGraph
 	 *            the graph to coarsen
@@ -774,58 +1015,49 @@ public class Bisimulation {
 	 */
 	private static void mergePartitions(PartitionGraph pGraph,
 			TemporalInvariantSet invariants, int k) {
-		int outerItters = 0;
+		int numMerges = 0;
 
 		// The blacklist keeps a history of partitions we've attempted to merge
 		// and which did not work out because they resulted in invariant
 		// violations.
 		Map<Partition, Set<Partition>> mergeBlacklist = new LinkedHashMap<Partition, Set<Partition>>();
 
-		AbstractMain syn = AbstractMain.getInstance();
-		while (true) {
-			if (syn.options.dumpIntermediateStages) {
-				syn.exportNonInitialGraph(
-						syn.getIntermediateDumpFilename("c", outerItters),
-						pGraph);
-			}
-			outerItters++;
-
-			logger.fine("--------------------------------");
-			if (!mergePartitions(pGraph, mergeBlacklist, invariants, k)) {
-				break;
+		// Only partitions of the same event type can be k-equivalent.
+		Map<EventType, Set<Partition>> partitionsByType = new LinkedHashMap<EventType, Set<Partition>>();
+		for (Partition p : pGraph.getNodes()) {
+			Set<Partition> sameType = partitionsByType.get(p.getEType());
+			if (sameType == null) {
+				sameType = new LinkedHashSet<Partition>();
+				partitionsByType.put(p.getEType(), sameType);
 			}
+			sameType.add(p);
 		}
 
+		LinkedHashSet<Partition> worklist = new LinkedHashSet<Partition>(
+				pGraph.getNodes());
+
+		// If pGraph satisfies the invariants to begin with, then it does so
+		// before every tentative merge, and a merge only needs to be checked
+		// against the invariants that it may affect.
+		boolean scopedChecks = invariants != null
+				&& invariants.getFirstCounterExample(pGraph) == null;
+
+		AbstractMain syn = AbstractMain.getInstance();
 		if (syn.options.dumpIntermediateStages) {
 			syn.exportNonInitialGraph(
-					syn.getIntermediateDumpFilename("c", outerItters), pGraph);
+					syn.getIntermediateDumpFilename("c", numMerges), pGraph);
 		}
-	}
 
-	/**
-	 * Attempts to merge partitions that are k-equivalent, while respecting
-	 * invariants. Tries all pairs of partitions from pGraph, except for those
-	 * that are in the mergeBlacklist (these have been attempted previously and
-	 * are known to violate invariants). Returns true if at least one merge was
-	 * performed, otherwise returns false.
-	 * 
-	 * @param pGraph
-	 * @param mergeBlacklist
-	 * @param invariants
-	 * @param k
-	 * @return
-	 */
-	private static boolean mergePartitions(PartitionGraph pGraph,
-			Map<Partition, Set<Partition>> mergeBlacklist,
-			TemporalInvariantSet invariants, int k) {
-		ArrayList<Partition> partitions = new ArrayList<Partition>();
-		partitions.addAll(pGraph.getNodes());
-
-		// Attempt to merge all pairs of partitions in the current graph.
-		for (Partition p : partitions) {
-			for (Partition q : partitions) {
-				// 1. Can't merge a partition with itself
-				if (p == q) {
+		while (!worklist.isEmpty()) {
+			Partition p = worklist.iterator().next();
+			worklist.remove(p);
+
+			Set<Partition> sameType = partitionsByType.get(p.getEType());
+			// Copy, as accepted merges remove partitions from sameType.
+			for (Partition q : new ArrayList<Partition>(sameType)) {
+				// 1. Can't merge a partition with itself, or with a partition
+				// that was merged away.
+				if (p == q || !sameType.contains(q)) {
 					continue;
 				}
 
@@ -833,13 +1065,7 @@ public class Bisimulation {
 						+ p.hashCode() + ") + " + q + "(hash: " + q.hashCode()
 						+ ")");
 
-				// 2. Only merge partitions that are k-equivalent
-				if (!KTails.kEquals(p, q, k)) {
-					logger.fine("Partitions are not k-equivalent(k=" + k + ")");
-					continue;
-				}
-
-				// 3. Ignore partition pairs that were previously tried (are
+				// 2. Ignore partition pairs that were previously tried (are
 				// in blacklist)
 				if ((mergeBlacklist.containsKey(p) && mergeBlacklist.get(p)
 						.contains(q))
@@ -849,55 +1075,104 @@ public class Bisimulation {
 					continue;
 				}
 
-				Set<Partition> parts = new LinkedHashSet<Partition>();
-				parts.addAll(pGraph.getNodes());
-				IOperation rewindOperation = pGraph.apply(new PartitionMerge(p,
-						q));
-
-				CExamplePath<Partition> cExample = null;
+				// 3. Only merge partitions that are k-equivalent
+				if (!KTails.kEquals(p, q, k)) {
+					logger.fine("Partitions are not k-equivalent(k=" + k + ")");
+					continue;
+				}
 
-				if (invariants != null) {
-					cExample = invariants.getFirstCounterExample(pGraph);
+				if (tryMerge(pGraph, mergeBlacklist, invariants, scopedChecks,
+						p, q)) {
+					sameType.remove(q);
+					worklist.remove(q);
+					mergeBlacklist.remove(q);
+					numMerges++;
+
+					if (syn.options.dumpIntermediateStages) {
+						syn.exportNonInitialGraph(
+								syn.getIntermediateDumpFilename("c", numMerges),
+								pGraph);
+					}
 				}
+			}
+		}
+	}
 
-				if (cExample != null) {
-					// The merge created a violation. Remember this pair of
-					// partitions so that we don't try it again.
-					logger.fine("Merge violates invariant: "
-							+ cExample.toString());
+	/**
+	 * Merges q into p, and keeps the merge if it does not violate any of the
+	 * invariants. Otherwise, rewinds the merge and adds the pair to the
+	 * mergeBlacklist. Returns true if the merge was kept.
+	 * 
+	 * @param pGraph
+	 * @param mergeBlacklist
+	 * @param invariants
+	 * @param scopedChecks
+	 *            whether pGraph satisfies the invariants, so that only the
+	 *            invariants that the merge may affect have to be checked
+	 * @param p
+	 * @param q
+	 * @return
+	 */
+	private static boolean tryMerge(PartitionGraph pGraph,
+			Map<Partition, Set<Partition>> mergeBlacklist,
+			TemporalInvariantSet invariants, boolean scopedChecks,
+			Partition p, Partition q) {
+		boolean extraChecks = AbstractMain.getInstance().options.performExtraChecks;
+		Set<Partition> parts = null;
+		if (extraChecks) {
+			parts = new LinkedHashSet<Partition>(pGraph.getNodes());
+		}
+		// The merge is journaled, so that undoing it takes time proportional
+		// to the number of events in q.
+		int checkpoint = pGraph.checkpoint();
+		CExamplePath<Partition> cExample = null;
+		boolean accepted = false;
+		try {
+			pGraph.apply(new PartitionMerge(p, q));
+
+			if (scopedChecks) {
+				cExample = invariants.getFirstCounterExample(pGraph,
+						Collections.singleton(p));
+			} else if (invariants != null) {
+				cExample = invariants.getFirstCounterExample(pGraph);
+			}
+			accepted = (cExample == null);
+		} finally {
+			if (accepted) {
+				pGraph.release(checkpoint);
+			} else {
+				// Undo the merge.
+				pGraph.rollback(checkpoint);
+			}
+		}
 
-					if (!mergeBlacklist.containsKey(p)) {
-						mergeBlacklist.put(p, new LinkedHashSet<Partition>());
-					}
-					mergeBlacklist.get(p).add(q);
+		if (accepted) {
+			logger.fine("Merge of partitions " + p.getEType()
+					+ " nodes maintains invs, accepted.");
+			return true;
+		}
 
-					// Undo the merge.
-					pGraph.apply(rewindOperation);
+		// The merge created a violation. Remember this pair of partitions so
+		// that we don't try it again.
+		logger.fine("Merge violates invariant: " + cExample.toString());
 
-					if (AbstractMain.getInstance().options.performExtraChecks) {
-						pGraph.checkSanity();
-					}
+		if (!mergeBlacklist.containsKey(p)) {
+			mergeBlacklist.put(p, new LinkedHashSet<Partition>());
+		}
+		mergeBlacklist.get(p).add(q);
 
-					// We cannot change the partition sets because we are
-					// iterating over the partitions. Therefore, check that
-					// the resulting partition set is the same as the
-					// original partition set.
-					if (!(parts.containsAll(pGraph.getNodes()) && pGraph
-							.getNodes().containsAll(parts))) {
-						throw new InternalSynopticException(
-								"partition set changed due to rewind: "
-										+ rewindOperation);
-					}
+		if (extraChecks) {
+			pGraph.checkSanity();
 
-				} else {
-					logger.fine("Merge of partitions " + p.getEType()
-							+ " nodes maintains invs, accepted.");
-					return true;
-				}
+			// Check that the resulting partition set is the same as the
+			// original partition set.
+			if (!(parts.containsAll(pGraph.getNodes()) && pGraph.getNodes()
+					.containsAll(parts))) {
+				throw new InternalSynopticException(
+						"partition set changed due to rollback of merge of "
+								+ p + " and " + q);
 			}
 		}
-
-		// Unable to find any k-equivalent partitions; we're done.
 		return false;
 	}
 }
@@ -1,106 +1,174 @@
 package mkTails.algorithms;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import mkTails.model.EventNode;
 import mkTails.model.interfaces.IGraph;
+import mkTails.util.DisjointSets;
+import mkTails.util.Parallel;
 
 public class FloydWarshall {
 	/**
 	 * Warshall's Algorithm.
-	 * 
+	 *
 	 * <pre>
 	 * NOTE: this algorithm ignores special event types
 	 * (e.g., initial/terminal types).
 	 * </pre>
+	 *
+	 * Nodes in different connected components of the graph (without the
+	 * special nodes) cannot reach each other, so every component -- usually a
+	 * trace -- becomes a block of the closure, and is closed separately over
+	 * the bit matrix of the block. Each row is computed with word operations
+	 * from the rows of the node's children, in reverse topological order; for
+	 * a component with a cycle, this falls back to Warshall's triple loop over
+	 * the rows.
 	 */
 	public static TransitiveClosure warshallAlg(IGraph<EventNode> graph,
 			Set<String> relations) {
-		Set<EventNode> allNodes = graph.getNodes();
+		return warshallAlg(graph, relations, 1);
+	}
 
+	/**
+	 * Like warshallAlg(graph, relations), but closes the components of the
+	 * graph on the given number of threads. Every component is a block of its
+	 * own, so the threads fill in disjoint matrices.
+	 */
+	public static TransitiveClosure warshallAlg(IGraph<EventNode> graph,
+			Set<String> relations, int threads) {
 		TransitiveClosure transClosure = new TransitiveClosure(relations);
-		Map<EventNode, Set<EventNode>> tc = transClosure.getTC();
-
-		// Maps a node to its parents in the transitive closure.
-		HashMap<EventNode, HashSet<EventNode>> tcParents = new HashMap<EventNode, HashSet<EventNode>>();
 
-		for (EventNode m : allNodes) {
-			if (m.getEType().isSpecialEventType()) {
-				continue;
+		// Index the non-special nodes, and find their children.
+		List<EventNode> nodes = new ArrayList<EventNode>();
+		Map<EventNode, Integer> index = new HashMap<EventNode, Integer>();
+		for (EventNode m : graph.getNodes()) {
+			if (!m.getEType().isSpecialEventType()) {
+				index.put(m, nodes.size());
+				nodes.add(m);
 			}
-
-			/**
-			 * Iterate through all children of m and for each child do 2 things:
-			 * 
-			 * <pre>
-			 * 1. create a tc link between m and child and add m to tcParents[child]
-			 * 2. create a tc link between m and every node n to which child is already
-			 *    linked to in tc and add m to tcParents[n]
-			 * </pre>
-			 */
-			for (EventNode child : m.getAllSuccessors()) {
-				// ////////////////
+		}
+		int[][] children = new int[nodes.size()][];
+		DisjointSets components = new DisjointSets(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			List<Integer> cs = new ArrayList<Integer>();
+			for (EventNode child : nodes.get(i).getAllSuccessors()) {
 				// Ignore initial/terminal child events:
-				if (child.getEType().isSpecialEventType()) {
-					continue;
+				Integer c = index.get(child);
+				if (c != null) {
+					cs.add(c);
+					components.union(i, c);
 				}
-				// ///////////////
+			}
+			children[i] = new int[cs.size()];
+			for (int j = 0; j < cs.size(); j++) {
+				children[i][j] = cs.get(j);
+			}
+		}
 
-				// Create new tc map for node m.
-				if (!tc.containsKey(m)) {
-					tc.put(m, new LinkedHashSet<EventNode>());
-				}
+		// Group the nodes by component.
+		Map<Integer, List<Integer>> componentNodes = new LinkedHashMap<Integer, List<Integer>>();
+		for (int i = 0; i < nodes.size(); i++) {
+			int root = components.find(i);
+			List<Integer> component = componentNodes.get(root);
+			if (component == null) {
+				component = new ArrayList<Integer>();
+				componentNodes.put(root, component);
+			}
+			component.add(i);
+		}
 
-				if (!tcParents.containsKey(child)) {
-					tcParents.put(child, new HashSet<EventNode>());
+		// Register the blocks, and then close them.
+		final List<TransitiveClosure.Block> blocks = new ArrayList<TransitiveClosure.Block>();
+		final List<int[][]> blockChildren = new ArrayList<int[][]>();
+		int[] local = new int[nodes.size()];
+		for (List<Integer> component : componentNodes.values()) {
+			List<EventNode> blockNodes = new ArrayList<EventNode>(
+					component.size());
+			for (int i : component) {
+				local[i] = blockNodes.size();
+				blockNodes.add(nodes.get(i));
+			}
+			blocks.add(transClosure.addBlock(blockNodes, false));
+			int n = component.size();
+			int[][] cs = new int[n][];
+			for (int i = 0; i < n; i++) {
+				int[] c = children[component.get(i)];
+				cs[i] = new int[c.length];
+				for (int j = 0; j < c.length; j++) {
+					cs[i][j] = local[c[j]];
 				}
+			}
+			blockChildren.add(cs);
+		}
+		Parallel.forEachIndex(threads, blocks.size(), new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				closeBlock(blocks.get(i), blockChildren.get(i));
+			}
+		});
+		return transClosure;
+	}
+
+	/**
+	 * Fills in the matrix of block, given the children of every node of the
+	 * block by index.
+	 */
+	private static void closeBlock(TransitiveClosure.Block block,
+			int[][] children) {
+		int n = children.length;
 
-				// Link m to c
-				tc.get(m).add(child);
-				tcParents.get(child).add(m);
+		// Kahn's algorithm, to order the nodes topologically.
+		int[] numParents = new int[n];
+		for (int[] cs : children) {
+			for (int c : cs) {
+				numParents[c]++;
+			}
+		}
+		int[] order = new int[n];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (numParents[i] == 0) {
+				order[size++] = i;
+			}
+		}
+		for (int head = 0; head < size; head++) {
+			for (int c : children[order[head]]) {
+				if (--numParents[c] == 0) {
+					order[size++] = c;
+				}
+			}
+		}
 
-				// Link m to all nodes that c is linked to in tc
-				if (tc.containsKey(child)) {
-					// m can reach nodes the child can reach transitively:
-					tc.get(m).addAll(tc.get(child));
-					// nodes that child can reach have m as a tc parent:
-					for (EventNode n : tc.get(child)) {
-						if (!tcParents.containsKey(n)) {
-							tcParents.put(n, new HashSet<EventNode>());
-						}
-						tcParents.get(n).add(m);
-					}
+		if (size == n) {
+			// Every child is closed before its parents.
+			for (int o = n - 1; o >= 0; o--) {
+				int m = order[o];
+				for (int c : children[m]) {
+					block.set(m, c);
+					block.orRow(c, m);
 				}
 			}
+			return;
+		}
 
-			/**
-			 * Now that we're done compiling the downward transitive closure of
-			 * m, its time to push that information to m's parent nodes. For
-			 * each tc parent p of m we do 2 things:
-			 * 
-			 * <pre>
-			 * 1. For each node n in tc of m, add tc link between p and n
-			 * 2. For each node n in tc of m, add p to tcParents[n]
-			 * </pre>
-			 */
-			if (tcParents.containsKey(m) && tc.containsKey(m)) {
-				for (EventNode p : tcParents.get(m)) {
-					// P has a tc entry because its already part of
-					// tcParents of m (so we've already processed it)
-					// previously.
-					tc.get(p).addAll(tc.get(m));
-					for (EventNode n : tc.get(m)) {
-						// n has a tcParents entry because m is a tc parent
-						// of n and it must have been set above.
-						tcParents.get(n).add(p);
-					}
+		// The block has a cycle.
+		for (int m = 0; m < n; m++) {
+			for (int c : children[m]) {
+				block.set(m, c);
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < n; i++) {
+				if (block.reaches(i, k)) {
+					block.orRow(k, i);
 				}
 			}
 		}
-		return transClosure;
 	}
 }
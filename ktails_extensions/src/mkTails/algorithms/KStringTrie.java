@@ -0,0 +1,362 @@
+package mkTails.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import mkTails.model.event.EventType;
+import mkTails.model.interfaces.INode;
+import mkTails.util.Parallel;
+
+/**
+ * A pool of hash-consed tries, each of which represents a k-string set -- the
+ * set of strings of length <= k that can be constructed by starting at some
+ * node (see KTails.getNodeKStrings). Tries in a pool are unique: two nodes
+ * have the same k-string set iff their tries from the same pool are the same
+ * object. Identical sets of suffixes are therefore stored only once.<br />
+ * <br />
+ * The k-string sets of all nodes in a graph are computed bottom-up, level by
+ * level: the depth-d trie of a node is built from the depth-(d-1) tries of its
+ * successors. The tries of a level may be built on several threads. Which ids
+ * the tries receive then depends on scheduling, but which tries are the same
+ * object does not.
+ */
+public class KStringTrie {
+
+	/**
+	 * A trie in the pool. The trie root stands for the string of length 1
+	 * made up of its label, and every other trie node for the string of labels
+	 * on the path to it from the root.
+	 */
+	public static final class Node {
+		private final EventType	label;
+
+		/** The dense id of label. */
+		private final int		labelId;
+
+		/** Children with pairwise distinct labels, sorted by id. */
+		private final Node[]	children;
+
+		private final int		id;
+
+		/** The length of the longest string in the trie. */
+		private final int		depth;
+
+		private Node(EventType label, Node[] children, int id) {
+			this.label = label;
+			this.labelId = label.getDenseId();
+			this.children = children;
+			this.id = id;
+			int maxChildDepth = 0;
+			for (Node child : children) {
+				maxChildDepth = Math.max(maxChildDepth, child.depth);
+			}
+			this.depth = maxChildDepth + 1;
+		}
+
+		public EventType getLabel() {
+			return label;
+		}
+
+		public List<Node> getChildren() {
+			return Arrays.asList(children);
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(label);
+			if (children.length > 0) {
+				sb.append('(');
+				for (int i = 0; i < children.length; i++) {
+					if (i > 0) {
+						sb.append(", ");
+					}
+					sb.append(children[i]);
+				}
+				sb.append(')');
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * The structural identity of a trie -- the dense id of its label and its
+	 * (interned) children.
+	 */
+	private static final class Key {
+		private final int		labelId;
+		private final Node[]	children;
+		private final int		hash;
+
+		Key(int labelId, Node[] children) {
+			this.labelId = labelId;
+			this.children = children;
+			this.hash = 31 * labelId + Arrays.hashCode(children);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			// Children are interned, so Arrays.equals compares references.
+			return hash == other.hash && labelId == other.labelId
+					&& Arrays.equals(children, other.children);
+		}
+	}
+
+	private static final Node[]				NO_CHILDREN	= new Node[0];
+
+	private static final Comparator<Node>	BY_ID		= new Comparator<Node>() {
+		@Override
+		public int compare(Node n1, Node n2) {
+			return Integer.compare(n1.id, n2.id);
+		}
+	};
+
+	private static final Comparator<Node>	BY_LABEL	= new Comparator<Node>() {
+		@Override
+		public int compare(Node n1, Node n2) {
+			return Integer.compare(n1.labelId, n2.labelId);
+		}
+	};
+
+	private final Map<Key, Node>			pool		= new ConcurrentHashMap<Key, Node>();
+
+	private final AtomicInteger				nextId		= new AtomicInteger();
+
+	/** Memoized unions, keyed by the ids of the two tries. */
+	private final Map<Long, Node>			unions		= new ConcurrentHashMap<Long, Node>();
+
+	/** Memoized truncations, keyed by the id of the trie and the depth. */
+	private final Map<Long, Node>			truncations	= new ConcurrentHashMap<Long, Node>();
+
+	/**
+	 * Returns the trie with root label {@code label} and the given children.
+	 * Children with the same label are merged.
+	 */
+	public Node intern(EventType label, Collection<Node> children) {
+		Node[] byLabel = children.toArray(new Node[children.size()]);
+		Arrays.sort(byLabel, BY_LABEL);
+		// Merge each run of children with the same label.
+		int numMerged = 0;
+		for (int i = 0; i < byLabel.length; i++) {
+			if (numMerged > 0
+					&& byLabel[numMerged - 1].labelId == byLabel[i].labelId) {
+				byLabel[numMerged - 1] = union(byLabel[numMerged - 1],
+						byLabel[i]);
+			} else {
+				byLabel[numMerged++] = byLabel[i];
+			}
+		}
+		Node[] sorted = Arrays.copyOf(byLabel, numMerged);
+		Arrays.sort(sorted, BY_ID);
+		return internSorted(label, sorted);
+	}
+
+	private Node internSorted(EventType label, Node[] children) {
+		Key key = new Key(label.getDenseId(), children);
+		Node n = pool.get(key);
+		if (n == null) {
+			Node fresh = new Node(label, children, nextId.getAndIncrement());
+			n = pool.putIfAbsent(key, fresh);
+			if (n == null) {
+				n = fresh;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the trie of the union of the string sets of two tries with the
+	 * same root label.
+	 */
+	public Node union(Node n1, Node n2) {
+		assert n1.labelId == n2.labelId;
+
+		if (n1 == n2) {
+			return n1;
+		}
+		Long pair = n1.id < n2.id ? pairKey(n1.id, n2.id) : pairKey(n2.id,
+				n1.id);
+		Node u = unions.get(pair);
+		if (u == null) {
+			List<Node> children = new ArrayList<Node>(n1.children.length
+					+ n2.children.length);
+			children.addAll(Arrays.asList(n1.children));
+			children.addAll(Arrays.asList(n2.children));
+			u = intern(n1.label, children);
+			unions.put(pair, u);
+		}
+		return u;
+	}
+
+	/**
+	 * Returns the trie of the strings in {@code n} that are of length <=
+	 * {@code depth}.
+	 */
+	public Node truncate(Node n, int depth) {
+		assert depth > 0;
+
+		if (n.depth <= depth) {
+			return n;
+		}
+		Long key = pairKey(n.id, depth);
+		Node t = truncations.get(key);
+		if (t == null) {
+			if (depth == 1) {
+				t = internSorted(n.label, NO_CHILDREN);
+			} else {
+				List<Node> children = new ArrayList<Node>(n.children.length);
+				for (Node child : n.children) {
+					children.add(truncate(child, depth - 1));
+				}
+				t = intern(n.label, children);
+			}
+			truncations.put(key, t);
+		}
+		return t;
+	}
+
+	/**
+	 * Computes the trie of the k-string set of every node in {@code nodes},
+	 * which must contain all the successors of its nodes. Each of the k levels
+	 * takes time linear in the number of transitions between nodes, and is
+	 * split across the given number of threads. The computation stops early
+	 * once the tries no longer change from one level to the next.
+	 */
+	public <NodeType extends INode<NodeType>> Map<NodeType, Node> computeKFutures(
+			Collection<NodeType> nodes, int k, int threads) {
+		assert (k > 0);
+
+		final List<NodeType> order = new ArrayList<NodeType>(nodes);
+		final Map<NodeType, Integer> index = new HashMap<NodeType, Integer>();
+		for (int i = 0; i < order.size(); i++) {
+			index.put(order.get(i), i);
+		}
+		final int[][] successors = new int[order.size()][];
+		Parallel.forEachIndex(threads, order.size(), new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				Set<NodeType> succs = order.get(i).getAllSuccessors();
+				successors[i] = new int[succs.size()];
+				int j = 0;
+				for (NodeType succ : succs) {
+					Integer succIndex = index.get(succ);
+					if (succIndex == null) {
+						throw new IllegalArgumentException("Successor " + succ
+								+ " is not one of the nodes.");
+					}
+					successors[i][j++] = succIndex;
+				}
+			}
+		});
+
+		// Level 1: every node's k-string set holds just its own label.
+		Node[] level = new Node[order.size()];
+		for (int i = 0; i < order.size(); i++) {
+			level[i] = internSorted(order.get(i).getEType(), NO_CHILDREN);
+		}
+
+		for (int d = 2; d <= k; d++) {
+			final Node[] prev = level;
+			final Node[] next = new Node[order.size()];
+			Parallel.forEachIndex(threads, order.size(), new IntConsumer() {
+				@Override
+				public void accept(int i) {
+					List<Node> children = new ArrayList<Node>(
+							successors[i].length);
+					for (int succ : successors[i]) {
+						children.add(prev[succ]);
+					}
+					next[i] = intern(order.get(i).getEType(), children);
+				}
+			});
+			level = next;
+			// Each level is a function of the previous one, so a level that
+			// repeats the previous one is a fixpoint.
+			if (Arrays.equals(prev, next)) {
+				break;
+			}
+		}
+
+		Map<NodeType, Node> futures = new LinkedHashMap<NodeType, Node>();
+		for (int i = 0; i < order.size(); i++) {
+			futures.put(order.get(i), level[i]);
+		}
+		return futures;
+	}
+
+	/**
+	 * Whether or not some string in the trie contains an event type with one
+	 * of the given labels.
+	 */
+	public static boolean containsLabel(Node n, Collection<String> labels) {
+		Set<Node> visited = new HashSet<Node>();
+		List<Node> toVisit = new ArrayList<Node>();
+		toVisit.add(n);
+		visited.add(n);
+		while (!toVisit.isEmpty()) {
+			Node cur = toVisit.remove(toVisit.size() - 1);
+			if (labels.contains(cur.label.getETypeLabel())) {
+				return true;
+			}
+			for (Node child : cur.children) {
+				if (visited.add(child)) {
+					toVisit.add(child);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Expands a trie into the k-string set that it represents.
+	 */
+	public static Set<List<EventType>> getKStrings(Node n) {
+		Set<List<EventType>> kStrings = new LinkedHashSet<List<EventType>>();
+		addKStrings(n, new ArrayList<EventType>(), kStrings);
+		return kStrings;
+	}
+
+	private static void addKStrings(Node n, List<EventType> prefix,
+			Set<List<EventType>> kStrings) {
+		prefix.add(n.label);
+		kStrings.add(new ArrayList<EventType>(prefix));
+		for (Node child : n.children) {
+			addKStrings(child, prefix, kStrings);
+		}
+		prefix.remove(prefix.size() - 1);
+	}
+
+	private static long pairKey(int a, int b) {
+		return ((long) a << 32) | (b & 0xffffffffL);
+	}
+}
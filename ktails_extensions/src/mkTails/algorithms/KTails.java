@@ -2,21 +2,29 @@ package mkTails.algorithms;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
 import java.util.logging.Logger;
 
 import mkTails.algorithms.graphops.PartitionMultiMerge;
+import mkTails.main.AbstractMain;
 import mkTails.model.ChainsTraceGraph;
+import mkTails.model.EventNode;
 import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 import mkTails.model.event.EventType;
 import mkTails.model.interfaces.INode;
+import mkTails.util.DisjointSets;
 import mkTails.util.Pair;
+import mkTails.util.Parallel;
 
 /**
  * Implements the KTails algorithm as defined in Biermann & Feldman '72.
@@ -38,7 +46,7 @@ public class KTails {
 
 		double timeStart = System.currentTimeMillis();
 
-		PartitionGraph pGraph = new PartitionGraph(g, false, null);
+		PartitionGraph pGraph = newInitialPartitionGraph(g);
 
 		System.out.println("Create partition graph took: " + (System.currentTimeMillis() - timeStart));
 
@@ -64,7 +72,7 @@ public class KTails {
 
 		double timeStart = System.currentTimeMillis();
 
-		PartitionGraph pGraph = new PartitionGraph(g, false, null);
+		PartitionGraph pGraph = newInitialPartitionGraph(g);
 
 		System.out.println("Create partition graph took: " + (System.currentTimeMillis() - timeStart));
 
@@ -78,100 +86,148 @@ public class KTails {
 	}
 
 	/**
-	 * Finds and executes all possible k-equivalent merges in pGraph.
+	 * Builds the kTails models of g for every k from kMax down to 1 in a single
+	 * pass. Since (k+1)-equivalence refines k-equivalence, the model for k is
+	 * obtained by merging partitions of the model for k+1, and the k-string
+	 * sets of every k are truncations of the kMax-string sets, which are
+	 * computed once.<br />
+	 * <br />
+	 * All models share the event nodes of g, so only one of them can be live
+	 * at a time: modelConsumer (if not null) is handed each model, together
+	 * with its k, before the model is coarsened into the next one. The model
+	 * for k = 1 is left in place when this method returns.
+	 * 
+	 * @return statistics of the models, ordered by k from 1 to kMax
 	 */
-	private static void kTails(PartitionGraph pGraph, int k) {
+	public static List<SweepStats> performKTailsSweep(ChainsTraceGraph g,
+			int kMax, ObjIntConsumer<PartitionGraph> modelConsumer) {
 		// Note: at k == 0, all "states" should be considered equal, but an
 		// event-based model cannot express this, thus the assert.
-		assert (k > 0);
-
-		// Keeps track of the merges that we want to perform.
-		Set<PartitionMultiMerge> merges = new LinkedHashSet<PartitionMultiMerge>();
+		assert (kMax > 0);
+
+		long timeStart = System.currentTimeMillis();
+
+		PartitionGraph pGraph = newInitialPartitionGraph(g);
+		List<Partition> initialPartitions = new ArrayList<Partition>(
+				pGraph.getNodes());
+		KStringTrie tries = new KStringTrie();
+		Map<Partition, KStringTrie.Node> futures = tries.computeKFutures(
+				initialPartitions, kMax,
+				AbstractMain.getInstance().options.threads);
+
+		LinkedList<SweepStats> stats = new LinkedList<SweepStats>();
+		for (int k = kMax; k > 0; k--) {
+			// Every partition still in the graph is an initial partition into
+			// which (k+1)-equivalent partitions were merged, so the future of
+			// the initial partition stands for all of its events.
+			List<Partition> partitions = new ArrayList<Partition>(
+					pGraph.getNodes());
+			Map<Partition, Object> kStringsMap = new LinkedHashMap<Partition, Object>();
+			for (Partition P : partitions) {
+				KStringTrie.Node future = tries.truncate(futures.get(P), k);
+				P.setkParam(future.getDepth());
+				kStringsMap.put(P, future);
+			}
+			pGraph.applyAll(findKEquivalentMerges(partitions, kStringsMap));
 
-		// List of all partitions -- needed for ordering partitions in the loops
-		// below.
-		List<Partition> partitions = new ArrayList<Partition>(pGraph.getNodes());
+			int numEdges = 0;
+			for (Partition P : pGraph.getNodes()) {
+				numEdges += P.getAllSuccessors().size();
+			}
+			long timeEnd = System.currentTimeMillis();
+			stats.addFirst(new SweepStats(k, pGraph.getNodes().size(),
+					numEdges, timeEnd - timeStart));
+			logger.info("kTails sweep: " + stats.getFirst());
 
-		// Partitions that belong to a merge.
-		List<Partition> mergedPartitions = new ArrayList<Partition>();
+			if (modelConsumer != null) {
+				modelConsumer.accept(pGraph, k);
+			}
+			timeStart = System.currentTimeMillis();
+		}
+		return stats;
+	}
 
-		// Maps a partition to the set of strings of length <= k reachable from
-		// the partition.
-		// TODO: this is inefficient, ideally we would Map sets of strings to
-		// partitions with those sets!
-		Map<Partition, Set<List<EventType>>> kStringsMap = new LinkedHashMap<Partition, Set<List<EventType>>>();
+	/**
+	 * Statistics of one model built by performKTailsSweep.
+	 */
+	public static final class SweepStats {
+		private final int	k;
+		private final int	numStates;
+		private final int	numEdges;
+		private final long	millis;
+
+		SweepStats(int k, int numStates, int numEdges, long millis) {
+			this.k = k;
+			this.numStates = numStates;
+			this.numEdges = numEdges;
+			this.millis = millis;
+		}
 
-		// int remaining = partitions.size();
-		// Build the kStringsMap
-		logger.fine("Pre-computing [node -> ktail set] map");
-		double timeStart = System.currentTimeMillis();
-		for (Partition P : partitions) {
-			// logger.info("Remaining kTails pre-mining = " + remaining);
-			// remaining -= 1;
-			Set<List<EventType>> ret = getNodeKStrings(P, k);
-			int maxListLen = 0;
-			for (List<EventType> l : ret) {
-				maxListLen = Math.max(l.size(), maxListLen);
-			}
-			P.setkParam(maxListLen);
-			kStringsMap.put(P, ret);
+		public int getK() {
+			return k;
 		}
 
-		logger.fine("Finding sets of nodes that are k-equivalent.");
+		/** The number of partitions in the model. */
+		public int getNumStates() {
+			return numStates;
+		}
 
-		System.out.println("Partition size :" + partitions.size() + "\n");
-		for (int i = 0; i < partitions.size(); i++) {
-			if ((i % 100) == 0)
-				System.out.println("Remaining kTails n^2 checking = " + (partitions.size() - i));
-			
-			Partition Pi = partitions.get(i);
+		/** The number of pairs of partitions with a transition between them. */
+		public int getNumEdges() {
+			return numEdges;
+		}
 
-			// Skip partition Pi if it has already been merged previously.
-			// Since k-equivalence is transitive, this merge already contains
-			// all the k-equivalent partitions.
-			if (mergedPartitions.contains(Pi)) {
-				continue;
-			}
+		/**
+		 * The time it took to build the model from the previous one. For kMax
+		 * this includes building the initial partition graph and computing
+		 * the k-string sets.
+		 */
+		public long getMillis() {
+			return millis;
+		}
 
-			// m will track all partitions to be merged with Pi.
-			PartitionMultiMerge m = null;
+		@Override
+		public String toString() {
+			return "k=" + k + " states=" + numStates + " edges=" + numEdges
+					+ " time=" + millis + "ms";
+		}
+	}
 
-			Set<List<EventType>> PiKStrings = kStringsMap.get(Pi);
+	/**
+	 * Returns the partition graph that kTails starts from: either one
+	 * partition per event node, or one partition per set of event nodes with
+	 * identical futures. Both lead to the same kTails model.
+	 */
+	private static PartitionGraph newInitialPartitionGraph(ChainsTraceGraph g) {
+		if (AbstractMain.getInstance().options.kTailsIdenticalFuturesPartitioning) {
+			return PartitionGraph.newIdenticalFuturesPartitionGraph(g, null);
+		}
+		return new PartitionGraph(g, false, null);
+	}
 
-			// Can't merge a partition with itself. So skip i=j. Also, merging
-			// is commutative so if we've tried merge(p1,p2), then we don't have
-			// to try/check merge(p2,p1). So skip j < i.
-			for (int j = i + 1; j < partitions.size(); j++) {
-				Partition Pj = partitions.get(j);
-				// If we merged p1 and p2 previously, and now we are merging
-				// p2 and p3, then p3 _must_ be in the p1+p2 partition, since we
-				// must have already compared the ktails of p1 and p3
-				// previously.
-				if (mergedPartitions.contains(Pj)) {
-					continue;
-				}
+	/**
+	 * Finds and executes all possible k-equivalent merges in pGraph.
+	 */
+	private static void kTails(PartitionGraph pGraph, int k) {
+		// Note: at k == 0, all "states" should be considered equal, but an
+		// event-based model cannot express this, thus the assert.
+		assert (k > 0);
 
-				Set<List<EventType>> PjKStrings = kStringsMap.get(Pj);
-				if (!PiKStrings.equals(PjKStrings)) {
-					continue;
-				}
+		// List of all partitions -- needed for ordering partitions in the loops
+		// below.
+		List<Partition> partitions = new ArrayList<Partition>(pGraph.getNodes());
 
-				logger.fine("Merging " + Pi + " and " + Pj);
+		// Build the kStringsMap
+		logger.fine("Pre-computing [node -> ktail set] map");
+		double timeStart = System.currentTimeMillis();
+		Map<Partition, Object> kStringsMap = computeKStringsMap(
+				pGraph.getTraceGraph(), partitions, k);
 
-				if (m == null) {
-					List<Partition> list = new ArrayList<Partition>();
-					list.add(Pj);
-					m = new PartitionMultiMerge(Pi, list);
-					merges.add(m);
-				} else {
-					m.addToMerge(Pj);
-				}
+		logger.fine("Finding sets of nodes that are k-equivalent.");
 
-				// We don't need to add Pi to mergedPartitions, since we
-				// will never come back to it in the check above.
-				mergedPartitions.add(Pj);
-			}
-		}
+		System.out.println("Partition size :" + partitions.size() + "\n");
+		Set<PartitionMultiMerge> merges = findKEquivalentMerges(partitions,
+				kStringsMap);
 
 		System.out.println("Time first part took "
 				+ Double.toString(System.currentTimeMillis() - timeStart));
@@ -179,10 +235,7 @@ public class KTails {
 		logger.fine("Applying merges.");
 
 		logger.info("# merges : " + merges.size());
-		for (PartitionMultiMerge merge : merges) {
-			pGraph.apply(merge);
-
-		}
+		pGraph.applyAll(merges);
 
 		return;
 
@@ -197,121 +250,338 @@ public class KTails {
 		// event-based model cannot express this, thus the assert.
 		assert (k > 0);
 
-		// Keeps track of the merges that we want to perform.
-		Set<PartitionMultiMerge> merges = new LinkedHashSet<PartitionMultiMerge>();
-
 		// List of all partitions -- needed for ordering partitions in the loops
 		// below.
 		List<Partition> partitions = new ArrayList<Partition>(pGraph.getNodes());
 
-		// Partitions that belong to a merge.
-		List<Partition> mergedPartitions = new ArrayList<Partition>();
-
-		// Maps a partition to the set of strings of length <= k reachable from
-		// the partition.
-		// TODO: this is inefficient, ideally we would Map sets of strings to
-		// partitions with those sets!
-		Map<Partition, Set<List<EventType>>> kStringsMap = new LinkedHashMap<Partition, Set<List<EventType>>>();
-
-		// int remaining = partitions.size();
 		// Build the kStringsMap
 		logger.fine("Pre-computing [node -> ktail set] map");
 		double timeStart = System.currentTimeMillis();
-		for (Partition P : partitions) {
-			//Calculate to all as if they are contains the sensitive labels
-			Set<List<EventType>> ret = getNodeKStrings(P, maxSensitiveK);
-			
-			//TODO - for all my futures need to to get the highest k that I m intersect with the corresponding list
-			int actualK = getActualKBaseOnMyFuture(ret, sensitiveLabelsAndK, k);
-			//Need to remove redundant lists (size > k)
-			Iterator<List<EventType>> iter = ret.iterator();
-			while (iter.hasNext()) {
-				if(iter.next().size() > actualK){
-			        iter.remove();
-			    }
-			}
-			
-			int maxListLen = 0;
-			for (List<EventType> l : ret) {
-				maxListLen = Math.max(l.size(), maxListLen);
-			}
-			P.setkParam(maxListLen);
-			kStringsMap.put(P, ret);
-		}
+		Map<Partition, Object> kStringsMap = computeSensitiveKStringsMap(
+				partitions, k, maxSensitiveK, sensitiveLabelsAndK);
 
 		logger.fine("Pre-computed map: " + kStringsMap.toString());
 
 		logger.fine("Finding sets of nodes that are k-equivalent.");
 
 		System.out.println("Partition size :" + partitions.size() + "\n");
+		Set<PartitionMultiMerge> merges = findKEquivalentMerges(partitions,
+				kStringsMap);
+
+		System.out.println("Time first part took "
+				+ Double.toString(System.currentTimeMillis() - timeStart));
+
+		logger.fine("Applying merges.");
+
+		logger.info("# merges : " + merges.size());
+		pGraph.applyAll(merges);
+
+		return;
+
+	}
+
+	/**
+	 * Maps every partition to a key that stands for its set of strings of
+	 * length <= k, such that two partitions have the same set iff their keys
+	 * are equal. Also sets the k parameter of every partition to the length of
+	 * its longest string. The events of every partition must be k-equivalent.
+	 * <br />
+	 * If g is made of chains, the keys are those of k-windows (see
+	 * KTailsChainWindows).
+	 * Otherwise the k-string sets are computed on the number of threads given
+	 * by the threads option; the map and the k parameters are filled in
+	 * afterwards, in the order of partitions.
+	 */
+	private static Map<Partition, Object> computeKStringsMap(
+			ChainsTraceGraph g, final List<Partition> partitions, final int k) {
+		int threads = AbstractMain.getInstance().options.threads;
+		Map<Partition, Object> kStringsMap = new LinkedHashMap<Partition, Object>();
+		if (AbstractMain.getInstance().options.kTailsChainWindows) {
+			Map<EventNode, KTailsChainWindows.WindowKey> windows = KTailsChainWindows
+					.computeWindowKeys(g, k);
+			if (windows != null) {
+				for (Partition P : partitions) {
+					KTailsChainWindows.WindowKey window = windows.get(P
+							.getEventNodes().iterator().next());
+					P.setkParam(window.getLength());
+					kStringsMap.put(P, window);
+				}
+				return kStringsMap;
+			}
+			logger.fine("Trace graph is not made of chains, computing k-string sets instead of k-windows.");
+		}
+		if (AbstractMain.getInstance().options.kTailsFutureTrie) {
+			Map<Partition, KStringTrie.Node> futures = new KStringTrie()
+					.computeKFutures(partitions, k, threads);
+			for (Partition P : partitions) {
+				KStringTrie.Node future = futures.get(P);
+				P.setkParam(future.getDepth());
+				kStringsMap.put(P, future);
+			}
+			return kStringsMap;
+		}
+
+		final KStringsSignature[] sigs = new KStringsSignature[partitions.size()];
+		Parallel.forEachIndex(threads, partitions.size(), new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				sigs[i] = new KStringsSignature(getNodeKStrings(
+						partitions.get(i), k));
+			}
+		});
+		for (int i = 0; i < partitions.size(); i++) {
+			Partition P = partitions.get(i);
+			P.setkParam(getMaxListLen(sigs[i].kStrings));
+			kStringsMap.put(P, sigs[i]);
+		}
+		return kStringsMap;
+	}
+
+	/**
+	 * Like computeKStringsMap, but uses the k that belongs to the first of
+	 * sensitiveLabelsAndK whose labels appear in the strings of length <=
+	 * maxSensitiveK of a partition, and k for partitions with none of the
+	 * sensitive labels in their future.
+	 */
+	private static Map<Partition, Object> computeSensitiveKStringsMap(
+			final List<Partition> partitions, final int k,
+			final int maxSensitiveK,
+			final ArrayList<Pair<Integer, List<String>>> sensitiveLabelsAndK) {
+		int threads = AbstractMain.getInstance().options.threads;
+		Map<Partition, Object> kStringsMap = new LinkedHashMap<Partition, Object>();
+		if (AbstractMain.getInstance().options.kTailsFutureTrie) {
+			final KStringTrie tries = new KStringTrie();
+			final Map<Partition, KStringTrie.Node> futures = tries
+					.computeKFutures(partitions, maxSensitiveK, threads);
+			final KStringTrie.Node[] truncated = new KStringTrie.Node[partitions
+					.size()];
+			Parallel.forEachIndex(threads, partitions.size(), new IntConsumer() {
+				@Override
+				public void accept(int i) {
+					KStringTrie.Node future = futures.get(partitions.get(i));
+					int actualK = k;
+					for (Pair<Integer, List<String>> p : sensitiveLabelsAndK) {
+						if (KStringTrie.containsLabel(future, p.getRight())) {
+							actualK = p.getLeft();
+							break;
+						}
+					}
+					truncated[i] = tries.truncate(future, actualK);
+				}
+			});
+			for (int i = 0; i < partitions.size(); i++) {
+				Partition P = partitions.get(i);
+				P.setkParam(truncated[i].getDepth());
+				kStringsMap.put(P, truncated[i]);
+			}
+			return kStringsMap;
+		}
+
+		final KStringsSignature[] sigs = new KStringsSignature[partitions.size()];
+		Parallel.forEachIndex(threads, partitions.size(), new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				//Calculate to all as if they are contains the sensitive labels
+				Set<List<EventType>> ret = getNodeKStrings(partitions.get(i),
+						maxSensitiveK);
+				
+				//TODO - for all my futures need to to get the highest k that I m intersect with the corresponding list
+				int actualK = getActualKBaseOnMyFuture(ret, sensitiveLabelsAndK, k);
+				//Need to remove redundant lists (size > k)
+				Iterator<List<EventType>> iter = ret.iterator();
+				while (iter.hasNext()) {
+					if(iter.next().size() > actualK){
+				        iter.remove();
+				    }
+				}
+				sigs[i] = new KStringsSignature(ret);
+			}
+		});
+		for (int i = 0; i < partitions.size(); i++) {
+			Partition P = partitions.get(i);
+			P.setkParam(getMaxListLen(sigs[i].kStrings));
+			kStringsMap.put(P, sigs[i]);
+		}
+		return kStringsMap;
+	}
+
+	private static int getMaxListLen(Set<List<EventType>> kStrings) {
+		int maxListLen = 0;
+		for (List<EventType> l : kStrings) {
+			maxListLen = Math.max(l.size(), maxListLen);
+		}
+		return maxListLen;
+	}
+
+	/**
+	 * Returns the merges that collapse every set of partitions with identical
+	 * k-string sets into the first partition (in the order of partitions) of
+	 * that set. The partitions to merge into it are listed in the order of
+	 * partitions as well. kStringsMap maps partitions to keys of their k-string
+	 * sets, as built by computeKStringsMap.
+	 */
+	private static Set<PartitionMultiMerge> findKEquivalentMerges(
+			List<Partition> partitions, Map<Partition, ?> kStringsMap) {
+		if (AbstractMain.getInstance().options.kTailsHashGrouping) {
+			return findKEquivalentMergesBySignature(partitions, kStringsMap);
+		}
+		return findKEquivalentMergesPairwise(partitions, kStringsMap);
+	}
+
+	/**
+	 * Groups partitions by the keys of their k-string sets through a hash map.
+	 * This runs in time linear in the number of partitions, and produces
+	 * exactly the merges of findKEquivalentMergesPairwise.
+	 */
+	private static Set<PartitionMultiMerge> findKEquivalentMergesBySignature(
+			List<Partition> partitions, Map<Partition, ?> kStringsMap) {
+		DisjointSets classes = new DisjointSets(partitions.size());
+		// Maps a key to the index of the first partition with that key.
+		Map<Object, Integer> firstWithKey = new HashMap<Object, Integer>();
+		for (int i = 0; i < partitions.size(); i++) {
+			Object sig = kStringsMap.get(partitions.get(i));
+			Integer first = firstWithKey.get(sig);
+			if (first == null) {
+				firstWithKey.put(sig, i);
+			} else {
+				classes.union(first, i);
+			}
+		}
+		return getClassMerges(partitions, classes);
+	}
+
+	/**
+	 * Compares the k-string sets of all pairs of partitions. This takes time
+	 * quadratic in the number of partitions.
+	 */
+	private static Set<PartitionMultiMerge> findKEquivalentMergesPairwise(
+			List<Partition> partitions, Map<Partition, ?> kStringsMap) {
+		// Partition i is joined to the k-equivalent partitions that follow it.
+		DisjointSets classes = new DisjointSets(partitions.size());
+
 		for (int i = 0; i < partitions.size(); i++) {
 			if ((i % 100) == 0)
 				logger.fine("Remaining kTails n^2 checking = " + (partitions.size() - i));
-			
-			Partition Pi = partitions.get(i);
 
 			// Skip partition Pi if it has already been merged previously.
-			// Since k-equivalence is transitive, this merge already contains
+			// Since k-equivalence is transitive, its class already contains
 			// all the k-equivalent partitions.
-			if (mergedPartitions.contains(Pi)) {
+			if (!classes.isRepresentative(i)) {
 				continue;
 			}
 
-			// m will track all partitions to be merged with Pi.
-			PartitionMultiMerge m = null;
-
-			Set<List<EventType>> PiKStrings = kStringsMap.get(Pi);
+			Object PiKStrings = kStringsMap.get(partitions.get(i));
 
 			// Can't merge a partition with itself. So skip i=j. Also, merging
 			// is commutative so if we've tried merge(p1,p2), then we don't have
 			// to try/check merge(p2,p1). So skip j < i.
 			for (int j = i + 1; j < partitions.size(); j++) {
-				Partition Pj = partitions.get(j);
 				// If we merged p1 and p2 previously, and now we are merging
-				// p2 and p3, then p3 _must_ be in the p1+p2 partition, since we
+				// p2 and p3, then p3 _must_ be in the p1+p2 class, since we
 				// must have already compared the ktails of p1 and p3
 				// previously.
-				if (mergedPartitions.contains(Pj)) {
+				if (!classes.isRepresentative(j)) {
 					continue;
 				}
 
-				Set<List<EventType>> PjKStrings = kStringsMap.get(Pj);
+				Object PjKStrings = kStringsMap.get(partitions.get(j));
 				if (!PiKStrings.equals(PjKStrings)) {
 					continue;
 				}
 
-				logger.fine("Merging " + Pi + " and " + Pj);
-
-				if (m == null) {
-					List<Partition> list = new ArrayList<Partition>();
-					list.add(Pj);
-					m = new PartitionMultiMerge(Pi, list);
-					merges.add(m);
-				} else {
-					m.addToMerge(Pj);
-				}
+				logger.fine("Merging " + partitions.get(i) + " and "
+						+ partitions.get(j));
+				classes.union(i, j);
+			}
+		}
+		return getClassMerges(partitions, classes);
+	}
 
-				// We don't need to add Pi to mergedPartitions, since we
-				// will never come back to it in the check above.
-				mergedPartitions.add(Pj);
+	/**
+	 * Returns one merge per class of partitions with more than one member,
+	 * which collapses the class into its first partition. Merges, and the
+	 * partitions in each merge, follow the order of partitions.
+	 */
+	private static Set<PartitionMultiMerge> getClassMerges(
+			List<Partition> partitions, DisjointSets classes) {
+		Map<Integer, List<Partition>> membersOf = new HashMap<Integer, List<Partition>>();
+		for (int i = 0; i < partitions.size(); i++) {
+			int rep = classes.find(i);
+			if (rep == i) {
+				continue;
+			}
+			List<Partition> members = membersOf.get(rep);
+			if (members == null) {
+				members = new ArrayList<Partition>();
+				membersOf.put(rep, members);
 			}
+			members.add(partitions.get(i));
 		}
 
-		System.out.println("Time first part took "
-				+ Double.toString(System.currentTimeMillis() - timeStart));
+		Set<PartitionMultiMerge> merges = new LinkedHashSet<PartitionMultiMerge>();
+		for (int i = 0; i < partitions.size(); i++) {
+			List<Partition> members = membersOf.get(i);
+			if (members != null) {
+				merges.add(new PartitionMultiMerge(partitions.get(i), members));
+			}
+		}
+		return merges;
+	}
 
-		logger.fine("Applying merges.");
+	/**
+	 * A hash key for an explicitly enumerated k-string set. The fingerprint is
+	 * computed once, is independent of the iteration order of the set, and
+	 * mixes the hash of every string so that sets that differ in a single
+	 * string rarely collide. Collisions are resolved by comparing the sets
+	 * exactly.
+	 */
+	private static final class KStringsSignature {
+		private final Set<List<EventType>>	kStrings;
+		private final int					fingerprint;
+
+		KStringsSignature(Set<List<EventType>> kStrings) {
+			this.kStrings = kStrings;
+			int h = kStrings.size();
+			for (List<EventType> kString : kStrings) {
+				h += mix(kString.hashCode());
+			}
+			fingerprint = mix(h);
+		}
 
-		logger.info("# merges : " + merges.size());
-		for (PartitionMultiMerge merge : merges) {
-			pGraph.apply(merge);
+		/** The finalization step of MurmurHash3. */
+		private static int mix(int h) {
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+			return h;
+		}
 
+		@Override
+		public int hashCode() {
+			return fingerprint;
 		}
 
-		return;
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof KStringsSignature)) {
+				return false;
+			}
+			KStringsSignature other = (KStringsSignature) o;
+			return fingerprint == other.fingerprint
+					&& kStrings.equals(other.kStrings);
+		}
 
+		@Override
+		public String toString() {
+			return kStrings.toString();
+		}
 	}
-	
+
 	private static int getActualKBaseOnMyFuture(Set<List<EventType>> ret,
 			ArrayList<Pair<Integer, List<String>>> sensitiveLabelsAndK, int normalK) {
 		for (Pair<Integer, List<String>> p : sensitiveLabelsAndK) {
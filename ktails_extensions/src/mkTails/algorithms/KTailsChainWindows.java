@@ -0,0 +1,176 @@
+package mkTails.algorithms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mkTails.model.ChainsTraceGraph;
+import mkTails.model.EventNode;
+
+/**
+ * Computes the k-equivalence classes of the events of a ChainsTraceGraph
+ * without comparing k-string sets.<br />
+ * <br />
+ * When every event has a single successor, the k-string set of an event is the
+ * set of prefixes of its k-window -- the event types of the event and of the
+ * k-1 events that follow it in its trace (fewer at the end of the trace). Two
+ * events are thus k-equivalent iff their k-windows are equal. The windows are
+ * numbered by doubling, starting from the dense ids of event types (see
+ * EventType.getDenseId()): the window of length a + b at an event is the pair
+ * of the window of length a at the event and the window of length b a
+ * events further, so equal windows of length a + b get the same number iff
+ * their two halves do. Every doubling, and every step that adds a power of
+ * two to the window length, is one pass over the events, with one hash
+ * lookup per event. This takes O(n log k) time for n events, and never
+ * compares windows event type by event type.
+ */
+public class KTailsChainWindows {
+
+	/**
+	 * The key of a k-window: the number of the window among all k-windows, and
+	 * its length. The INITIAL event, whose future branches into all traces,
+	 * gets a window of just its own type, which no other window starts with,
+	 * and a key of its own.
+	 */
+	public static final class WindowKey {
+		private final int	window;
+		private final int	length;
+
+		WindowKey(int window, int length) {
+			this.window = window;
+			this.length = length;
+		}
+
+		/** The length of the longest string in the k-string set. */
+		public int getLength() {
+			return length;
+		}
+
+		@Override
+		public int hashCode() {
+			return window * 31 + length;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof WindowKey)) {
+				return false;
+			}
+			WindowKey other = (WindowKey) o;
+			return window == other.window && length == other.length;
+		}
+
+		@Override
+		public String toString() {
+			return "window[" + length + "]:" + window;
+		}
+	}
+
+	/**
+	 * Returns the k-window key of every event node in g, or null if g is not
+	 * made of chains: some event other than INITIAL has more than one
+	 * successor, an event other than TERMINAL is on more than one trace, or an
+	 * event is not on any trace.
+	 */
+	public static Map<EventNode, WindowKey> computeWindowKeys(
+			ChainsTraceGraph g, int k) {
+		assert (k > 0);
+
+		// The traces, one after the other, each up to and including TERMINAL,
+		// and the number of events from every position to the end of its
+		// trace.
+		List<EventNode> events = new ArrayList<EventNode>();
+		List<Integer> remaining = new ArrayList<Integer>();
+		Set<EventNode> seen = new HashSet<EventNode>();
+		EventNode initial = g.getDummyInitialNode();
+		int longestTrace = 0;
+		for (EventNode first : initial.getAllSuccessors()) {
+			int start = events.size();
+			EventNode cur = first;
+			while (true) {
+				if (!seen.add(cur) && !cur.isTerminal()) {
+					return null;
+				}
+				events.add(cur);
+				Set<EventNode> succs = cur.getAllSuccessors();
+				if (succs.isEmpty()) {
+					break;
+				}
+				if (succs.size() > 1) {
+					return null;
+				}
+				cur = succs.iterator().next();
+			}
+			for (int i = events.size() - start; i > 0; i--) {
+				remaining.add(i);
+			}
+			longestTrace = Math.max(longestTrace, events.size() - start);
+		}
+		// Every event other than INITIAL, including TERMINAL, is seen.
+		if (seen.size() + 1 != g.getNodes().size()) {
+			// Some events are not on a trace from INITIAL.
+			return null;
+		}
+
+		int n = events.size();
+		int[] remainingEvents = new int[n];
+		int[] windows = new int[n];
+		for (int i = 0; i < n; i++) {
+			remainingEvents[i] = remaining.get(i);
+			windows[i] = events.get(i).getEType().getDenseId();
+		}
+
+		// windows numbers the windows of length 2^j, and kWindows those of
+		// the length made of the bits of k below j.
+		int[] kWindows = null;
+		int kLength = 0;
+		for (int length = 1; length <= k; length <<= 1) {
+			if ((k & length) != 0) {
+				kWindows = kWindows == null ? windows : concat(kWindows,
+						kLength, windows, remainingEvents);
+				kLength += length;
+			}
+			if (2L * length <= k) {
+				windows = concat(windows, length, windows, remainingEvents);
+			}
+		}
+
+		Map<EventNode, WindowKey> keys = new HashMap<EventNode, WindowKey>(
+				2 * n);
+		for (int i = 0; i < n; i++) {
+			keys.put(events.get(i), new WindowKey(kWindows[i], Math.min(k,
+					remainingEvents[i])));
+		}
+		keys.put(initial, new WindowKey(-1,
+				(int) Math.min(k, 1L + longestTrace)));
+		return keys;
+	}
+
+	/**
+	 * Numbers the windows of length a + b: the window at position i is the
+	 * window of length a at i (a numbered by first), followed by the window
+	 * of length b at i + a (numbered by second), if the trace goes on that
+	 * far. Equal windows get equal numbers, and different windows different
+	 * ones, as long as that holds for first and second.
+	 */
+	private static int[] concat(int[] first, int a, int[] second,
+			int[] remaining) {
+		int n = first.length;
+		int[] ret = new int[n];
+		Map<Long, Integer> numbers = new HashMap<Long, Integer>();
+		for (int i = 0; i < n; i++) {
+			long rest = remaining[i] > a ? second[i + a] + 1L : 0;
+			Long pair = ((long) first[i] << 32) | rest;
+			Integer number = numbers.get(pair);
+			if (number == null) {
+				number = numbers.size();
+				numbers.put(pair, number);
+			}
+			ret[i] = number;
+		}
+		return ret;
+	}
+}
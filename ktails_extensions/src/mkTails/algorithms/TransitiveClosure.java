@@ -1,7 +1,11 @@
 package mkTails.algorithms;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -10,36 +14,181 @@ import mkTails.model.EventNode;
 /**
  * Computes and maintains the transitive closure. Code based on
  * http://www.cs.princeton.edu/courses/archive/fall05/cos226/lectures
- * /digraph.pdf
+ * /digraph.pdf <br />
+ * <br />
+ * No node of a trace reaches a node of another trace, so the closure is
+ * block-diagonal: the nodes of a trace form a block (see addBlock), in which
+ * reachability is a bit matrix over the indices of the nodes in the block.
+ * The nodes of a chain reach exactly the nodes after them, so chain blocks
+ * (see addChain) need no matrix at all. Reachability that is not within a
+ * block -- for instance, that of the INITIAL and TERMINAL nodes, which all
+ * traces share -- is kept as sets of nodes.
  */
 public class TransitiveClosure {
-	// Reachability map.
+
+	/**
+	 * The nodes of a block, and which of them reach which. Row i of the
+	 * matrix is the bitset of the nodes that node i reaches, and takes words
+	 * longs from rows[i * words]. Chain blocks have no matrix: node i reaches
+	 * node j if i < j.
+	 */
+	static final class Block {
+		final EventNode[]	nodes;
+		final int			words;
+		final long[]		rows;
+
+		Block(EventNode[] nodes, boolean chain) {
+			this.nodes = nodes;
+			this.words = chain ? 0 : (nodes.length + 63) >>> 6;
+			this.rows = chain ? null : new long[nodes.length * words];
+		}
+
+		boolean isChain() {
+			return rows == null;
+		}
+
+		boolean reaches(int i, int j) {
+			if (rows == null) {
+				return i < j;
+			}
+			return (rows[i * words + (j >>> 6)] & (1L << j)) != 0;
+		}
+
+		void set(int i, int j) {
+			rows[i * words + (j >>> 6)] |= 1L << j;
+		}
+
+		/**
+		 * Makes node into reach all the nodes that node from reaches.
+		 */
+		void orRow(int from, int into) {
+			int f = from * words;
+			int t = into * words;
+			for (int w = 0; w < words; w++) {
+				rows[t + w] |= rows[f + w];
+			}
+		}
+
+		/**
+		 * Adds the nodes that node i reaches to reachable.
+		 */
+		void addReachables(int i, Collection<EventNode> reachable) {
+			if (rows == null) {
+				for (int j = i + 1; j < nodes.length; j++) {
+					reachable.add(nodes[j]);
+				}
+				return;
+			}
+			for (int w = 0; w < words; w++) {
+				long word = rows[i * words + w];
+				while (word != 0) {
+					reachable.add(nodes[(w << 6)
+							+ Long.numberOfTrailingZeros(word)]);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+
+	/** The block of a node, and the index of the node in it. */
+	private static final class Slot {
+		final Block	block;
+		final int	index;
+
+		Slot(Block block, int index) {
+			this.block = block;
+			this.index = index;
+		}
+	}
+
+	private final Map<EventNode, Slot>				slots	= new HashMap<EventNode, Slot>();
+
+	// Reachability map, for the reachability that is not within a block.
 	// If y is reachable from x then tc.get(x).contains(y) == true,
 	// otherwise tc.get(x).contains(y) == false
-	Map<EventNode, Set<EventNode>>	tc	= new LinkedHashMap<EventNode, Set<EventNode>>();
+	private final Map<EventNode, Set<EventNode>>	tc		= new LinkedHashMap<EventNode, Set<EventNode>>();
 
-	private final Set<String>		relations;
+	private final Set<String>						relations;
 
 	/**
-	 * Create the transitive closure of {@code graph} for the Relation
-	 * {@code relation} using one of two algorithms -- an iterative Warshall's
-	 * algorithm or the recursive older algorithm.
-	 * 
-	 * @param graph
-	 *            the graph
+	 * Create an empty transitive closure for the Relation {@code relation}.
+	 * FloydWarshall.warshallAlg and the trace graphs fill it in.
+	 *
 	 * @param relation
 	 *            the relation
-	 * @param useWarshall
-	 *            whether or not to use Warshall's algorithm
 	 */
 	public TransitiveClosure(Set<String> relation) {
 		this.relations = relation;
 	}
 
+	/**
+	 * Adds a block of nodes, none of which may be in a block already. No node
+	 * of the block reaches another one until that is recorded. INITIAL and
+	 * TERMINAL nodes are left out of the block, as they are shared by traces.
+	 *
+	 * @param nodes
+	 *            the nodes of a trace, or of a connected part of one
+	 */
+	public void addBlock(Collection<EventNode> nodes) {
+		addBlock(nodes, false);
+	}
+
+	/**
+	 * Adds a chain block: every node of chain reaches the nodes after it, and
+	 * only those. None of the nodes may be in a block already, and INITIAL and
+	 * TERMINAL nodes are left out as in addBlock.
+	 *
+	 * @param chain
+	 *            the nodes of the chain, in order
+	 */
+	public void addChain(List<EventNode> chain) {
+		if (chain.size() > 1) {
+			addBlock(chain, true);
+		}
+	}
+
+	Block addBlock(Collection<EventNode> nodes, boolean chain) {
+		List<EventNode> blockNodes = new ArrayList<EventNode>(nodes.size());
+		for (EventNode node : nodes) {
+			if (!node.getEType().isSpecialEventType()) {
+				blockNodes.add(node);
+			}
+		}
+		Block block = new Block(
+				blockNodes.toArray(new EventNode[blockNodes.size()]), chain);
+		for (int i = 0; i < block.nodes.length; i++) {
+			Slot prev = slots.put(block.nodes[i], new Slot(block, i));
+			assert prev == null : "Node " + block.nodes[i]
+					+ " is in two blocks.";
+		}
+		return block;
+	}
+
+	/**
+	 * Adds the blocks and the reachability of other, a closure of the same
+	 * relations whose blocks are disjoint from those of this closure, to this
+	 * closure. The blocks are shared, so other must not be changed afterwards.
+	 * This is how the closures of traces that were computed separately are
+	 * combined.
+	 */
+	public void addAll(TransitiveClosure other) {
+		assert relations.equals(other.relations);
+		for (Map.Entry<EventNode, Slot> entry : other.slots.entrySet()) {
+			Slot prev = slots.put(entry.getKey(), entry.getValue());
+			assert prev == null : "Node " + entry.getKey()
+					+ " is in two blocks.";
+		}
+		for (Map.Entry<EventNode, Set<EventNode>> entry : other.tc.entrySet()) {
+			for (EventNode n : entry.getValue()) {
+				recordTransitiveReachability(entry.getKey(), n);
+			}
+		}
+	}
+
 	/**
 	 * Check whether there is an edge in the transitive closure between
 	 * {@code m} and {@code n}.
-	 * 
+	 *
 	 * @param m
 	 *            a node
 	 * @param n
@@ -47,6 +196,18 @@ public class TransitiveClosure {
 	 * @return true if {@code m} can reach {@code n}
 	 */
 	public boolean isReachable(EventNode m, EventNode n) {
+		Slot sm = slots.get(m);
+		if (sm != null) {
+			Slot sn = slots.get(n);
+			if (sn != null && sn.block == sm.block) {
+				if (sm.block.reaches(sm.index, sn.index)) {
+					return true;
+				}
+				if (!sm.block.isChain()) {
+					return false;
+				}
+			}
+		}
 		Set<EventNode> i = tc.get(m);
 		if (i == null) {
 			return false;
@@ -54,14 +215,30 @@ public class TransitiveClosure {
 		return i.contains(n);
 	}
 
-	// WARNING: Assumes that 'into' has a non-null entry in tc.
+	/**
+	 * Records the fact that {@code into} can reach all the nodes that
+	 * {@code from} can reach. Within a block this is a bitwise or of rows.
+	 */
 	public void mergeReachables(EventNode from, EventNode into) {
-		Set<EventNode> srcSet = tc.get(from);
+		Slot sf = slots.get(from);
+		if (sf != null) {
+			Slot si = slots.get(into);
+			if (si != null && si.block == sf.block && !sf.block.isChain()) {
+				sf.block.orRow(sf.index, si.index);
+			} else {
+				List<EventNode> reachable = new ArrayList<EventNode>();
+				sf.block.addReachables(sf.index, reachable);
+				for (EventNode n : reachable) {
+					recordTransitiveReachability(into, n);
+				}
+			}
+		}
 
+		Set<EventNode> srcSet = tc.get(from);
 		if (srcSet != null) {
-			Set<EventNode> destSet = tc.get(into);
-			assert destSet != null;
-			destSet.addAll(srcSet);
+			for (EventNode n : new ArrayList<EventNode>(srcSet)) {
+				recordTransitiveReachability(into, n);
+			}
 		}
 	}
 
@@ -69,6 +246,20 @@ public class TransitiveClosure {
 	 * Records the fact that m can transitively reach n.
 	 */
 	public void recordTransitiveReachability(EventNode m, EventNode n) {
+		Slot sm = slots.get(m);
+		if (sm != null) {
+			Slot sn = slots.get(n);
+			if (sn != null && sn.block == sm.block) {
+				if (!sm.block.isChain()) {
+					sm.block.set(sm.index, sn.index);
+					return;
+				}
+				if (sm.index < sn.index) {
+					return;
+				}
+			}
+		}
+
 		Set<EventNode> r;
 		if (!tc.containsKey(m)) {
 			r = new LinkedHashSet<EventNode>();
@@ -80,18 +271,28 @@ public class TransitiveClosure {
 	}
 
 	/**
-	 * Returns the set of nodes that are reachable from a source node
-	 * 
+	 * Returns the set of nodes that are reachable from a source node, or null
+	 * if there are none. The set is a copy.
+	 *
 	 * @param source
 	 *            the node from which the reachability closure is computed.
 	 */
 	public Set<EventNode> getReachableNodes(EventNode source) {
-		return tc.get(source);
+		Set<EventNode> reachable = new LinkedHashSet<EventNode>();
+		Slot slot = slots.get(source);
+		if (slot != null) {
+			slot.block.addReachables(slot.index, reachable);
+		}
+		Set<EventNode> r = tc.get(source);
+		if (r != null) {
+			reachable.addAll(r);
+		}
+		return reachable.isEmpty() ? null : reachable;
 	}
 
 	/**
 	 * Equality for transitive closure
-	 * 
+	 *
 	 * @param other
 	 * @return if {@code o} describes the same relation is {@code this}
 	 */
@@ -99,38 +300,32 @@ public class TransitiveClosure {
 		if (!this.relations.equals(other.relations)) {
 			return false;
 		}
-
-		for (EventNode u : other.tc.keySet()) {
-			for (EventNode v : other.tc.get(u)) {
-				// v is reachable from u in other.tc, check that same is true
-				// for this.tc:
-				if (!isReachable(u, v)) {
-					return false;
-				}
-			}
-		}
-
-		for (EventNode u : tc.keySet()) {
-			for (EventNode v : tc.get(u)) {
-				// v is reachable from u in this.tc, check that same is true for
-				// other.tc:
-				if (!other.isReachable(u, v)) {
-					return false;
-				}
-			}
-		}
-		return true;
+		return getTC().equals(other.getTC());
 	}
 
 	public String toString() {
-		return tc.toString();
+		return getTC().toString();
 	}
 
 	/**
+	 * Returns the closure as a reachability map, which holds the nodes that
+	 * reach some node. This builds the map, and so takes memory that is
+	 * quadratic in the number of nodes per trace; changes to the map do not
+	 * affect the closure.
+	 *
 	 * @return tc
 	 */
 	public Map<EventNode, Set<EventNode>> getTC() {
-		return tc;
+		Map<EventNode, Set<EventNode>> ret = new LinkedHashMap<EventNode, Set<EventNode>>();
+		Set<EventNode> sources = new LinkedHashSet<EventNode>(slots.keySet());
+		sources.addAll(tc.keySet());
+		for (EventNode source : sources) {
+			Set<EventNode> reachable = getReachableNodes(source);
+			if (reachable != null) {
+				ret.put(source, reachable);
+			}
+		}
+		return ret;
 	}
 
 }
@@ -13,7 +13,9 @@ public interface IOperation {
      * 
      * @param g
      *            the partition graph to apply to
-     * @return an operation that will undo the changes
+     * @return an operation that will undo the changes, or null if g has an
+     *         open checkpoint (see PartitionGraph.checkpoint), in which case
+     *         the changes are undone by rolling the graph back
      */
     IOperation commit(PartitionGraph g);
 }
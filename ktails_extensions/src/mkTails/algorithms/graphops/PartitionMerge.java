@@ -1,6 +1,5 @@
 package mkTails.algorithms.graphops;
 
-import mkTails.model.EventNode;
 import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 import mkTails.util.InternalSynopticException;
@@ -34,12 +33,13 @@ public class PartitionMerge implements IOperation {
     public IOperation commit(PartitionGraph g) {
         int retainedSize = retained.size();
         int removedSize = removed.size();
-        PartitionSplit split = new PartitionSplit(retained, removed);
-        for (EventNode m : removed.getEventNodes()) {
-            split.addEventToSplit(m);
+        // Under a checkpoint, the graph journals the moved events instead.
+        PartitionSplit split = null;
+        if (!g.hasCheckpoint()) {
+            split = new PartitionSplit(retained, removed);
+            split.getSplitEvents().addAll(removed.getEventNodes());
         }
-        retained.addEventNodes(removed.getEventNodes());
-        removed.removeAllEventNodes();
+        g.moveEventNodes(removed, retained, removed.getEventNodes());
         g.removePartition(removed);
         if (removedSize + retainedSize != retained.size()) {
             throw new InternalSynopticException("lost messages!: "
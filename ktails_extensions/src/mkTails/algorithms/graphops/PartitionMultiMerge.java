@@ -1,11 +1,11 @@
 package mkTails.algorithms.graphops;
 
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import mkTails.model.EventNode;
+import mkTails.model.EventNodeSet;
 import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 
@@ -40,16 +40,19 @@ public class PartitionMultiMerge implements IOperation {
 
 	@Override
 	public IOperation commit(PartitionGraph g) {
+		// Under a checkpoint, the graph journals the moved events instead of
+		// this operation copying them for its rewind.
+		boolean rewindable = !g.hasCheckpoint();
 		ArrayList<Set<EventNode>> newSets = new ArrayList<Set<EventNode>>();
-		Set<EventNode> eNodes = new LinkedHashSet<EventNode>();
-		eNodes.addAll(retainedPartition.getEventNodes());
-		newSets.add(eNodes);
+		if (rewindable) {
+			newSets.add(new EventNodeSet(retainedPartition.getEventNodes()));
+		}
 		for (Partition removed : partitionsToMerge) {
-			retainedPartition.addEventNodes(removed.getEventNodes());
-			eNodes = new LinkedHashSet<EventNode>();
-			eNodes.addAll(removed.getEventNodes());
-			newSets.add(eNodes);
-			removed.removeAllEventNodes();
+			if (rewindable) {
+				newSets.add(new EventNodeSet(removed.getEventNodes()));
+			}
+			g.moveEventNodes(removed, retainedPartition,
+					removed.getEventNodes());
 			g.removePartition(removed);
 
 			// //////////////
@@ -62,7 +65,9 @@ public class PartitionMultiMerge implements IOperation {
 
 		g.removeFromCache(retainedPartition);
 
-		// TODO: Provide undo
+		if (!rewindable) {
+			return null;
+		}
 		return new PartitionMultiSplit(retainedPartition, newSets);
 	}
 
@@ -1,12 +1,14 @@
 package mkTails.algorithms.graphops;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import mkTails.main.AbstractMain;
 import mkTails.model.EventNode;
+import mkTails.model.EventNodeSet;
 import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 
@@ -28,7 +30,7 @@ public class PartitionMultiSplit implements IOperation {
     public PartitionMultiSplit(PartitionSplit split) {
         partition = split.getPartition();
         partitioning.add(split.getSplitEvents());
-        Set<EventNode> otherMessages = new LinkedHashSet<EventNode>(
+        Set<EventNode> otherMessages = new EventNodeSet(
                 partition.getEventNodes());
         otherMessages.removeAll(split.getSplitEvents());
         partitioning.add(otherMessages);
@@ -60,8 +62,7 @@ public class PartitionMultiSplit implements IOperation {
             }
             Partition newPartition = new Partition(set);
             newPartitions.add(newPartition);
-            partition.removeEventNodes(set);
-            newPartition.addEventNodes(set);
+            g.moveEventNodes(partition, newPartition, set);
             g.add(newPartition);
 
             g.clearNodeAdjacentsCache(newPartition);
@@ -78,6 +79,9 @@ public class PartitionMultiSplit implements IOperation {
             g.checkSanity();
         }
 
+        if (g.hasCheckpoint()) {
+            return null;
+        }
         return new PartitionMultiMerge(partition, newPartitions);
     }
 
@@ -108,7 +112,7 @@ public class PartitionMultiSplit implements IOperation {
 
         ArrayList<Set<EventNode>> newSets = new ArrayList<Set<EventNode>>();
         for (Set<EventNode> set : partitioning) {
-            Set<EventNode> newSet = new LinkedHashSet<EventNode>(set);
+            Set<EventNode> newSet = new EventNodeSet(set);
             set.removeAll(split.getSplitEvents());
             newSet.retainAll(split.getSplitEvents());
             newSets.add(newSet);
@@ -134,6 +138,16 @@ public class PartitionMultiSplit implements IOperation {
         return partition;
     }
 
+    /**
+     * Gets the sets of events that the partition will be split into. Upon
+     * commitment, the partition keeps the first set.
+     *
+     * @return the sets of events of the split
+     */
+    public List<Set<EventNode>> getPartitioning() {
+        return Collections.unmodifiableList(partitioning);
+    }
+
     /**
      * Incorporates a partition multi split.
      * 
@@ -147,7 +161,7 @@ public class PartitionMultiSplit implements IOperation {
         ArrayList<Set<EventNode>> newSets = new ArrayList<Set<EventNode>>();
         for (Set<EventNode> set : partitioning) {
             for (Set<EventNode> otherSet : split.partitioning) {
-                Set<EventNode> newSet = new LinkedHashSet<EventNode>(set);
+                Set<EventNode> newSet = new EventNodeSet(set);
                 set.removeAll(otherSet);
                 newSet.retainAll(otherSet);
                 newSets.add(newSet);
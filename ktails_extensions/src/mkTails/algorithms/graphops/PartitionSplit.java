@@ -1,9 +1,9 @@
 package mkTails.algorithms.graphops;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 import mkTails.model.EventNode;
+import mkTails.model.EventNodeSet;
 import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 
@@ -37,7 +37,7 @@ public class PartitionSplit implements IOperation {
      */
     public PartitionSplit(Partition partitionToSplit) {
         this.partitionToSplit = partitionToSplit;
-        eventsToSplitOut = new LinkedHashSet<EventNode>(partitionToSplit.size());
+        eventsToSplitOut = new EventNodeSet();
         newPartition = null;
     }
 
@@ -66,8 +66,7 @@ public class PartitionSplit implements IOperation {
             newPartition = new Partition(getSplitEvents());
         }
 
-        newPartition.addEventNodes(getSplitEvents());
-        partitionToSplit.removeEventNodes(getSplitEvents());
+        g.moveEventNodes(partitionToSplit, newPartition, getSplitEvents());
         g.add(newPartition);
 
         // //////////////
@@ -78,6 +77,9 @@ public class PartitionSplit implements IOperation {
 
         // //////////////
 
+        if (g.hasCheckpoint()) {
+            return null;
+        }
         return new PartitionMerge(partitionToSplit, newPartition);
     }
 
@@ -175,6 +175,20 @@ public class PerformanceMetrics {
         return str.toString();
     }
 
+    /**
+     * Returns the accumulated value recorded for the given key, or 0 if no
+     * value has been recorded for it.
+     * 
+     * @param key
+     *            name of the measurement
+     */
+    public long getValue(String key) {
+        if (!values.containsKey(key)) {
+            return 0;
+        }
+        return values.get(key);
+    }
+
     /**
      * Resets the global performance metrics object.
      */
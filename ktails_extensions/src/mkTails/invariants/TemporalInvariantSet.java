@@ -7,11 +7,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,8 +24,13 @@ import mkTails.benchmarks.TimedTask;
 import mkTails.invariants.fsmcheck.FsmModelChecker;
 import mkTails.invariants.ltlchecker.GraphLTLChecker;
 import mkTails.main.AbstractMain;
+import mkTails.model.GraphSnapshot;
+import mkTails.model.Partition;
+import mkTails.model.PartitionGraph;
+import mkTails.model.event.EventType;
 import mkTails.model.interfaces.IGraph;
 import mkTails.model.interfaces.INode;
+import mkTails.util.Parallel;
 
 /**
  * Maintains a set of temporal invariants.
@@ -35,6 +44,12 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
 
     LinkedHashSet<ITemporalInvariant> invariants = new LinkedHashSet<ITemporalInvariant>();
 
+    /**
+     * Event type -> invariants that have the event type as a predicate. Built
+     * on demand, and dropped whenever the set of invariants changes.
+     */
+    private Map<EventType, Set<ITemporalInvariant>> invariantsByPredicate = null;
+
     public TemporalInvariantSet() {
         // Empty constructor for use by unit tests.
     }
@@ -64,10 +79,12 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
 
     public void remove(ITemporalInvariant invariant) {
         invariants.remove(invariant);
+        invariantsByPredicate = null;
     }
 
     public void addAll(Collection<ITemporalInvariant> invs) {
         this.invariants.addAll(invs);
+        invariantsByPredicate = null;
     }
 
     /**
@@ -75,10 +92,12 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
      */
     public void removeAll(Collection<ITemporalInvariant> invs) {
         this.invariants.removeAll(invs);
+        invariantsByPredicate = null;
     }
 
     public void add(TemporalInvariantSet set) {
         invariants.addAll(set.invariants);
+        invariantsByPredicate = null;
     }
 
     @Override
@@ -117,6 +136,7 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
 
     public void add(ITemporalInvariant inv) {
         invariants.add(inv);
+        invariantsByPredicate = null;
     }
 
     /**
@@ -149,7 +169,10 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
 
     /**
      * Returns a list of paths, each of which violates an invariant maintained
-     * by this invariant set (i.e. each of which is a counter-example).
+     * by this invariant set (i.e. each of which is a counter-example). With the
+     * FSM checker and more than one thread (see the threads option), the
+     * invariants are checked concurrently against a read-only snapshot of the
+     * graph; the returned list is the same as with one thread.
      * 
      * @param <T>
      *            the type of nodes in graph g
@@ -165,14 +188,7 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
         try {
             List<CExamplePath<T>> paths = null;
             if (main.options.useFSMChecker) {
-                paths = new ArrayList<CExamplePath<T>>();
-                for (ITemporalInvariant tinv : invariants) {
-                    CExamplePath<T> path = FsmModelChecker.getCounterExample(
-                            (BinaryInvariant) tinv, graph);
-                    if (path != null) {
-                        paths.add(path);
-                    }
-                }
+                paths = getFsmCounterExamples(graph, main.options.threads);
             } else {
                 // Use the LTL checker instead.
                 paths = new ArrayList<CExamplePath<T>>();
@@ -208,6 +224,38 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
         }
     }
 
+    /**
+     * Returns the FSM checker counter-examples of the invariants that g
+     * violates, in the order of the invariants, checking the invariants on the
+     * given number of threads.
+     */
+    private <T extends INode<T>> List<CExamplePath<T>> getFsmCounterExamples(
+            IGraph<T> g, int threads) {
+        final List<ITemporalInvariant> invs = new ArrayList<ITemporalInvariant>(
+                invariants);
+        // PartitionGraph caches adjacent nodes as they are asked for, so
+        // concurrent checks must not share it.
+        final IGraph<T> graph = threads > 1 ? new GraphSnapshot<T>(g) : g;
+        final List<CExamplePath<T>> results = new ArrayList<CExamplePath<T>>(
+                Collections.<CExamplePath<T>> nCopies(invs.size(), null));
+
+        Parallel.forEachIndex(threads, invs.size(), new IntConsumer() {
+            @Override
+            public void accept(int i) {
+                results.set(i, FsmModelChecker.getCounterExample(
+                        (BinaryInvariant) invs.get(i), graph));
+            }
+        });
+
+        List<CExamplePath<T>> paths = new ArrayList<CExamplePath<T>>();
+        for (CExamplePath<T> path : results) {
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
     /**
      * Returns the first counter-example encountered in the graph g. The order
      * of exploration is unspecified.
@@ -246,6 +294,150 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
         }
     }
 
+    /**
+     * Returns the first counter-example in the graph g, given that g satisfied
+     * all of the invariants before the nodes in changed were merged or split.
+     * <br />
+     * <br />
+     * Such a change can only introduce violating paths that pass through a
+     * changed node, and every violating path contains an event of one of the
+     * predicates of the violated invariant. So only the invariants that have a
+     * predicate among the event types of the changed nodes, their ancestors,
+     * and their descendants are checked. The numbers of invariants that were
+     * checked and skipped are recorded as "invariant_checks" and
+     * "skipped_invariant_checks" in PerformanceMetrics.
+     * 
+     * @param <T>
+     *            the node type
+     * @param g
+     *            the graph to check
+     * @param changed
+     *            the nodes of g that were changed
+     * @return null if no violation is found, the counter-example path otherwise
+     */
+    public <T extends INode<T>> CExamplePath<T> getFirstCounterExample(
+            IGraph<T> g, Collection<T> changed) {
+        Set<ITemporalInvariant> affected = getInvariantsWithPredicates(getReachableETypes(
+                g, changed));
+
+        TimedTask violations = PerformanceMetrics.createTask(
+                "getFirstCounterExample", false);
+        int numChecks = 0;
+        try {
+            boolean useFSMChecker = AbstractMain.getInstance().options.useFSMChecker;
+            GraphLTLChecker<T> c = useFSMChecker ? null
+                    : new GraphLTLChecker<T>();
+            // Check the invariants in the same order as the unscoped check.
+            for (ITemporalInvariant inv : invariants) {
+                if (!affected.contains(inv)) {
+                    continue;
+                }
+                numChecks++;
+                CExamplePath<T> result;
+                if (useFSMChecker) {
+                    result = FsmModelChecker.getCounterExample(
+                            (BinaryInvariant) inv, g);
+                } else {
+                    result = c.getCounterExample(inv, g);
+                }
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        } finally {
+            violations.stop();
+            PerformanceMetrics.get().record("invariant_checks", numChecks);
+            PerformanceMetrics.get().record("skipped_invariant_checks",
+                    invariants.size() - affected.size());
+        }
+    }
+
+    /**
+     * Returns the invariants that have at least one of the given event types
+     * as a predicate.
+     */
+    private Set<ITemporalInvariant> getInvariantsWithPredicates(
+            Set<EventType> eTypes) {
+        if (invariantsByPredicate == null) {
+            invariantsByPredicate = new HashMap<EventType, Set<ITemporalInvariant>>();
+            for (ITemporalInvariant inv : invariants) {
+                for (EventType eType : inv.getPredicates()) {
+                    Set<ITemporalInvariant> invs = invariantsByPredicate
+                            .get(eType);
+                    if (invs == null) {
+                        invs = new HashSet<ITemporalInvariant>();
+                        invariantsByPredicate.put(eType, invs);
+                    }
+                    invs.add(inv);
+                }
+            }
+        }
+
+        Set<ITemporalInvariant> result = new HashSet<ITemporalInvariant>();
+        for (EventType eType : eTypes) {
+            Set<ITemporalInvariant> invs = invariantsByPredicate.get(eType);
+            if (invs != null) {
+                result.addAll(invs);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the event types of the nodes in changed, and of all the nodes of
+     * g that reach, or are reachable from, a node in changed. The ancestors in
+     * a partition graph are found through the reverse index of its transition
+     * cache (see PartitionGraph.getPredecessors).
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends INode<T>> Set<EventType> getReachableETypes(
+            IGraph<T> g, Collection<T> changed) {
+        Map<T, Set<T>> predecessors = null;
+        if (!(g instanceof PartitionGraph)) {
+            predecessors = new HashMap<T, Set<T>>();
+            for (T node : g.getNodes()) {
+                for (T succ : g.getAdjacentNodes(node)) {
+                    Set<T> preds = predecessors.get(succ);
+                    if (preds == null) {
+                        preds = new HashSet<T>();
+                        predecessors.put(succ, preds);
+                    }
+                    preds.add(node);
+                }
+            }
+        }
+
+        Set<EventType> eTypes = new HashSet<EventType>();
+        // Descendants, then ancestors.
+        for (boolean forward : new boolean[] { true, false }) {
+            Set<T> visited = new HashSet<T>(changed);
+            LinkedList<T> toVisit = new LinkedList<T>(changed);
+            while (!toVisit.isEmpty()) {
+                T node = toVisit.removeFirst();
+                eTypes.add(node.getEType());
+                Set<T> next;
+                if (forward) {
+                    next = g.getAdjacentNodes(node);
+                } else if (predecessors == null) {
+                    next = (Set<T>) ((PartitionGraph) g)
+                            .getPredecessors((Partition) node);
+                } else {
+                    next = predecessors.get(node);
+                }
+                if (next == null) {
+                    continue;
+                }
+                for (T n : next) {
+                    if (visited.add(n)) {
+                        toVisit.add(n);
+                    }
+                }
+            }
+        }
+        return eTypes;
+    }
+
     /**
      * Tests whether two invariant sets are equivalent.
      * 
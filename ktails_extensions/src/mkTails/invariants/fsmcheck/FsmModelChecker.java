@@ -171,23 +171,13 @@ public class FsmModelChecker {
     }
 
     /**
-     * Runs invariant-checking finite state machines over the mkTails.model
-     * graph, while keeping history paths which justify any particular state.
-     * This allows us to report counterexample paths, where a failure state is
-     * reached on a final node.
-     * 
-     * @param invariant
-     *            The invariant to test.
-     * @return The shortest counterexample path for this invariant.
+     * Returns a tracing state set, in its initial state, for the finite state
+     * machine of the given invariant.
      */
     @SuppressWarnings("unchecked")
-    public static <Node extends INode<Node>> CExamplePath<Node> getCounterExample(
-            BinaryInvariant invariant, IGraph<Node> graph) {
-
+    public static <Node extends INode<Node>> TracingStateSet<Node> newTracingSet(
+            BinaryInvariant invariant) {
         TracingStateSet<Node> stateset = null;
-        if (invariant == null) {
-            return null;
-        }
         Class<BinaryInvariant> invClass = (Class<BinaryInvariant>) invariant
                 .getClass();
         if (invClass.equals(AlwaysFollowedInvariant.class)) {
@@ -235,6 +225,27 @@ public class FsmModelChecker {
             }
         }
 
+        return stateset;
+    }
+
+    /**
+     * Runs invariant-checking finite state machines over the mkTails.model
+     * graph, while keeping history paths which justify any particular state.
+     * This allows us to report counterexample paths, where a failure state is
+     * reached on a final node.
+     * 
+     * @param invariant
+     *            The invariant to test.
+     * @return The shortest counterexample path for this invariant.
+     */
+    public static <Node extends INode<Node>> CExamplePath<Node> getCounterExample(
+            BinaryInvariant invariant, IGraph<Node> graph) {
+
+        if (invariant == null) {
+            return null;
+        }
+        TracingStateSet<Node> stateset = newTracingSet(invariant);
+
         // Return the shortest path, ending on a final node, which causes the
         // invariant to fail.
         HistoryNode<Node> shortestPath = null;
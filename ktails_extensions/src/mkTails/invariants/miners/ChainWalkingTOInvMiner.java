@@ -1,5 +1,6 @@
 package mkTails.invariants.miners;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -99,8 +100,9 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
         // types. See:
         // http://stackoverflow.com/questions/434989/hashmap-intialization-parameters-load-initialcapacity
 
-        // Stores generated RelationPaths
-        Set<IRelationPath> relationPaths = new HashSet<IRelationPath>();
+        // Stores generated RelationPaths, along with the number of identical
+        // traces that each one stands for (see the deduplicateTraces option).
+        Map<IRelationPath, Integer> relationPaths = new HashMap<IRelationPath, Integer>();
 
         // Tracks event counts globally -- across all traces.
         Map<EventType, Integer> gEventCnts = new LinkedHashMap<EventType, Integer>();
@@ -117,7 +119,7 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
             if (multipleRelations && !relation.equals(Event.defTimeRelationStr)) {
                 IRelationPath relationPath = trace.getBiRelationalPath(
                         relation, Event.defTimeRelationStr);
-                relationPaths.add(relationPath);
+                relationPaths.put(relationPath, trace.getMultiplicity());
             } else {
                 Set<IRelationPath> subgraphs = trace
                         .getSingleRelationPaths(relation);
@@ -126,17 +128,21 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
                     throw new IllegalStateException(
                             "Multiple relation subraphs for ordering relation graph");
                 }
-                relationPaths.addAll(subgraphs);
+                for (IRelationPath subgraph : subgraphs) {
+                    relationPaths.put(subgraph, trace.getMultiplicity());
+                }
             }
 
         }
 
-        for (IRelationPath relationPath : relationPaths) {
+        for (IRelationPath relationPath : relationPaths.keySet()) {
+            int multiplicity = relationPaths.get(relationPath);
             eTypes.addAll(relationPath.getSeen());
             Map<EventType, Integer> relationPathEventCounts = relationPath
                     .getEventCounts();
             for (EventType eventType : relationPathEventCounts.keySet()) {
-                int count = relationPathEventCounts.get(eventType);
+                int count = relationPathEventCounts.get(eventType)
+                        * multiplicity;
 
                 if (gEventCnts.containsKey(eventType)) {
                     count += gEventCnts.get(eventType);
@@ -173,7 +179,8 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
          * Iterates over each RelationPath in the graph and aggregates the
          * individual Occurrences, Follows, and Precedes counts.
          */
-        for (IRelationPath relationPath : relationPaths) {
+        for (IRelationPath relationPath : relationPaths.keySet()) {
+            int multiplicity = relationPaths.get(relationPath);
 
             /*
              * Adds the Precedes count from the RelationPath into the graph
@@ -182,7 +189,7 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
 
             Map<EventType, Map<EventType, Integer>> relationPathPrecedesCounts = relationPath
                     .getPrecedesCounts();
-            addCounts(relationPathPrecedesCounts, gPrecedesCnts);
+            addCounts(relationPathPrecedesCounts, gPrecedesCnts, multiplicity);
 
             /*
              * Adds the FollowedBy count from the RelationPath into the graph
@@ -191,7 +198,8 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
 
             Map<EventType, Map<EventType, Integer>> relationPathFollowedByCounts = relationPath
                     .getFollowedByCounts();
-            addCounts(relationPathFollowedByCounts, gFollowedByCnts);
+            addCounts(relationPathFollowedByCounts, gFollowedByCnts,
+                    multiplicity);
 
             /*
              * Updates the graph global InterruptedBy counts with the
@@ -244,19 +252,20 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
 
     /**
      * Adds the values from src into dst where the input maps have the form
-     * XCounts[a][b] = count
+     * XCounts[a][b] = count, counting each value in src multiplicity times
      * 
      * @param src
      * @param dst
+     * @param multiplicity
      */
     private static void addCounts(Map<EventType, Map<EventType, Integer>> src,
-            Map<EventType, Map<EventType, Integer>> dst) {
+            Map<EventType, Map<EventType, Integer>> dst, int multiplicity) {
 
         for (EventType a : src.keySet()) {
             Map<EventType, Integer> srcBValues = src.get(a);
             Map<EventType, Integer> dstBValues = dst.get(a);
             for (EventType b : srcBValues.keySet()) {
-                int count = srcBValues.get(b);
+                int count = srcBValues.get(b) * multiplicity;
                 if (dstBValues.containsKey(b)) {
                     count += dstBValues.get(b);
                 }
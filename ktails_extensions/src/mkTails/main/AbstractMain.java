@@ -504,9 +504,20 @@ public abstract class AbstractMain {
                 + miner.getClass().getName() + "]..");
         TemporalInvariantSet minedInvs = miner.computeInvariants(traceGraph,
                 options.multipleRelations, options.outputSupportCount);
+        removeConstrainedInvariants(minedInvs);
 
-        // Remove the interrupted by invariants from the mined set (not used in
-        // Synoptic).
+        loggerInfoEnd("Mining took ", startTime);
+
+        // Miner can be garbage-collected.
+        miner = null;
+        return minedInvs;
+    }
+
+    /**
+     * Removes the interrupted by invariants from the mined set (not used in
+     * Synoptic).
+     */
+    private void removeConstrainedInvariants(TemporalInvariantSet minedInvs) {
         if (!options.usePerformanceInfo) {
             TemporalInvariantSet minedInvsCopy = new TemporalInvariantSet();
             minedInvsCopy.add(minedInvs);
@@ -516,12 +527,6 @@ public abstract class AbstractMain {
                 }
             }
         }
-
-        loggerInfoEnd("Mining took ", startTime);
-
-        // Miner can be garbage-collected.
-        miner = null;
-        return minedInvs;
     }
 
     /**
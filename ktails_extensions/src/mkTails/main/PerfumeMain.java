@@ -11,7 +11,9 @@ import mkTails.main.options.AbstractOptions;
 import mkTails.main.options.PerfumeOptions;
 import mkTails.main.parser.ParseException;
 import mkTails.model.ChainsTraceGraph;
+import mkTails.model.EventNodeDictionary;
 import mkTails.model.PartitionGraph;
+import mkTails.model.event.EventTypeDictionary;
 import mkTails.model.export.GraphExportFormatter;
 import mkTails.util.InternalSynopticException;
 
@@ -110,6 +112,8 @@ public class PerfumeMain extends AbstractMain {
         logger.info("Using random seed: " + opts.randomSeed);
         AbstractOptions.keepOrder = true;
         AbstractMain.instance = this;
+        EventTypeDictionary.reset();
+        EventNodeDictionary.reset();
     }
 
     @Override
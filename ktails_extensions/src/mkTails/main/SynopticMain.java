@@ -8,7 +8,9 @@ import java.util.Random;
 import mkTails.main.options.AbstractOptions;
 import mkTails.main.options.SynopticOptions;
 import mkTails.main.parser.ParseException;
+import mkTails.model.EventNodeDictionary;
 import mkTails.model.PartitionGraph;
+import mkTails.model.event.EventTypeDictionary;
 import mkTails.model.export.GraphExportFormatter;
 import mkTails.util.InternalSynopticException;
 
@@ -108,5 +110,7 @@ public class SynopticMain extends AbstractMain {
 		this.random = new Random(opts.randomSeed);
 		// logger.info("Using random seed: " + opts.randomSeed);
 		AbstractMain.instance = this;
+		EventTypeDictionary.reset();
+		EventNodeDictionary.reset();
 	}
 }
\ No newline at end of file
@@ -51,6 +51,9 @@ public class AbstractOptions {
     static final String randomSeedStr = "Use a specific random seed for pseudo-random number generator";
     public Long randomSeed = null;
 
+    static final String threadsStr = "Number of threads to use for computations that can run in parallel";
+    public int threads = 1;
+
     static final String separateVTimeIndexSetsStr = "Vector time index sets for partitioning the graph by system node type, e.g. '1,2;3,4'";
     public static String separateVTimeIndexSets = null;
 
@@ -69,6 +72,22 @@ public class AbstractOptions {
     static final String ignoreIntrByInvsStr = "Ignore IntrBy Invariants. Synoptic currently doesn't support IntrBy Invariants.";
     public boolean ignoreIntrByInvs = true;
 
+    // ////////////////////////////
+    // KTails Options
+    // ////////////////////////////
+
+    static final String kTailsHashGroupingStr = "Group k-equivalent partitions by hashing their k-string sets instead of comparing all pairs of partitions";
+    public boolean kTailsHashGrouping = true;
+
+    static final String kTailsIdenticalFuturesPartitioningStr = "Start KTails from a partition graph in which events with identical futures share a partition, instead of one partition per event";
+    public boolean kTailsIdenticalFuturesPartitioning = false;
+
+    static final String kTailsFutureTrieStr = "Compute k-string sets bottom-up as shared, hash-consed tries instead of enumerating the strings of every partition separately";
+    public boolean kTailsFutureTrie = true;
+
+    static final String kTailsChainWindowsStr = "When every event has a single successor, group events by the numbers of their k-windows instead of computing k-string sets";
+    public boolean kTailsChainWindows = true;
+
     // ////////////////////////////
     // Parser Options
     // ////////////////////////////
@@ -96,6 +115,9 @@ public class AbstractOptions {
     static final String traceNormalizationStr = "Independently normalize each trace";
     public boolean traceNormalization = false;
 
+    static final String deduplicateTracesStr = "Collapse traces with identical sequences of event types into one trace with a multiplicity";
+    public boolean deduplicateTraces = false;
+
     static final String recoverFromParseErrorsStr = "Ignore parser warnings and attempt to recover from parse errors if possible";
     public boolean recoverFromParseErrors = false;
 
@@ -70,6 +70,13 @@ public class PerfumeOptions extends Options {
     @Option(AbstractOptions.randomSeedStr)
     public Long randomSeed = null;
 
+    /**
+     * The number of threads used by computations that can run in parallel. The
+     * result of a computation does not depend on this number.
+     */
+    @Option(AbstractOptions.threadsStr)
+    public int threads = 1;
+
     /**
      * Perfume doesn't support vector time
      */
@@ -95,6 +102,38 @@ public class PerfumeOptions extends Options {
      */
     public boolean ignoreIntrByInvs = false;
 
+    /**
+     * Group k-equivalent partitions in KTails through a hash map keyed by a
+     * fingerprint of each partition's k-string set, rather than comparing the
+     * k-string sets of all pairs of partitions.
+     */
+    @Option(AbstractOptions.kTailsHashGroupingStr)
+    public boolean kTailsHashGrouping = true;
+
+    /**
+     * Build the initial KTails partition graph from a prefix tree over the
+     * reversed traces, so that events with identical futures start out in the
+     * same partition. The final model is the same as without this option.
+     */
+    @Option(AbstractOptions.kTailsIdenticalFuturesPartitioningStr)
+    public boolean kTailsIdenticalFuturesPartitioning = false;
+
+    /**
+     * Compute the k-string sets of all partitions in KTails bottom-up, from the
+     * k-string sets of their successors, as tries drawn from a shared pool in
+     * which identical tries are stored once.
+     */
+    @Option(AbstractOptions.kTailsFutureTrieStr)
+    public boolean kTailsFutureTrie = true;
+
+    /**
+     * When every event in the trace graph has a single successor, find the
+     * k-equivalent events of KTails by numbering the windows of the next k
+     * event types of every event, in O(log k) passes over the traces.
+     */
+    @Option(AbstractOptions.kTailsChainWindowsStr)
+    public boolean kTailsChainWindows = true;
+
     // //////////////////////////////////////////////////
     /**
      * Regular expression separator string. When lines are found which match
@@ -156,6 +195,12 @@ public class PerfumeOptions extends Options {
             aliases = { "-trace-norm" })
     public boolean traceNormalization = false;
 
+    /**
+     * Perfume needs the performance information of every trace, so it doesn't
+     * deduplicate traces.
+     */
+    public final boolean deduplicateTraces = false;
+
     /**
      * This allows users to get away with sloppy\incorrect regular expressions
      * that might not fully cover the range of log lines appearing in the log
@@ -471,11 +516,16 @@ public class PerfumeOptions extends Options {
         absOpts.logLvlVerbose = logLvlVerbose;
         absOpts.useFSMChecker = useFSMChecker;
         absOpts.randomSeed = randomSeed;
+        absOpts.threads = threads;
         AbstractOptions.separateVTimeIndexSets = separateVTimeIndexSets;
         absOpts.multipleRelations = multipleRelations;
         absOpts.stateProcessing = stateProcessing;
         absOpts.testGeneration = testGeneration;
         absOpts.ignoreIntrByInvs = ignoreIntrByInvs;
+        absOpts.kTailsHashGrouping = kTailsHashGrouping;
+        absOpts.kTailsIdenticalFuturesPartitioning = kTailsIdenticalFuturesPartitioning;
+        absOpts.kTailsFutureTrie = kTailsFutureTrie;
+        absOpts.kTailsChainWindows = kTailsChainWindows;
 
         // Parser options
 
@@ -485,6 +535,7 @@ public class PerfumeOptions extends Options {
         absOpts.ignoreNonMatchingLines = ignoreNonMatchingLines;
         absOpts.usePerformanceInfo = usePerformanceInfo;
         absOpts.traceNormalization = traceNormalization;
+        absOpts.deduplicateTraces = deduplicateTraces;
         absOpts.recoverFromParseErrors = recoverFromParseErrors;
         absOpts.debugParse = debugParse;
         absOpts.dateFormat = dateFormat;
@@ -1003,6 +1003,8 @@ public class TraceParser {
 				eType = new StringEventType(eTypeLabel);
 				event = new Event(eType, line, fileName, lineNum);
 			}
+			// Number event types in the order in which they first appear.
+			eType.getDenseId();
 
 			/*
 			 * Tag event nodes with relation fields. This is gross, is there a
@@ -1221,6 +1223,7 @@ public class TraceParser {
 					+ " Failed to parse trace line. Using entire line as type.");
 			event = new Event(new StringEventType(line), line, fileName,
 					lineNum);
+			event.getEType().getDenseId();
 			if (selectedTimeGroup.equals(implicitTimeGroup)) {
 				// We can recover OK with log-line counting time.
 				event.setTime(new ITotalTime(lineNum));
@@ -1315,6 +1318,11 @@ public class TraceParser {
 
 		assert logTimeTypeIsTotallyOrdered();
 
+		AbstractMain main = AbstractMain.getInstance();
+		if (main != null && main.options.deduplicateTraces) {
+			return generateDedupedTORelation(allEvents);
+		}
+
 		ChainsTraceGraph graph = new ChainsTraceGraph(allEvents);
 		for (String partition : partitions.keySet()) {
 			graph.addTrace(partitions.get(partition), allEventRelations);
@@ -1322,6 +1330,60 @@ public class TraceParser {
 		return graph;
 	}
 
+	/**
+	 * Like generateDirectTORelation, but keeps only the first of every group
+	 * of traces with the same sequence of event types and relations. The kept
+	 * trace, and each of its events, records the size of its group as its
+	 * multiplicity.
+	 */
+	private ChainsTraceGraph generateDedupedTORelation(List<EventNode> allEvents)
+			throws ParseException {
+		// Sequence of (event type, relations) pairs -> the first trace with
+		// that sequence, and the number of traces with it.
+		Map<List<List<Object>>, List<EventNode>> representatives = new LinkedHashMap<List<List<Object>>, List<EventNode>>();
+		Map<List<List<Object>>, Integer> multiplicities = new HashMap<List<List<Object>>, Integer>();
+		Set<EventNode> dropped = new HashSet<EventNode>();
+
+		for (String partition : partitions.keySet()) {
+			List<EventNode> events = partitions.get(partition);
+			ChainsTraceGraph.orderTrace(events);
+			List<List<Object>> key = new ArrayList<List<Object>>(events.size());
+			for (EventNode e : events) {
+				key.add(Arrays.<Object> asList(e.getEType(),
+						allEventRelations.get(e)));
+			}
+			if (!representatives.containsKey(key)) {
+				representatives.put(key, events);
+				multiplicities.put(key, 1);
+			} else {
+				multiplicities.put(key, multiplicities.get(key) + 1);
+				dropped.addAll(events);
+			}
+		}
+
+		List<EventNode> keptEvents = new ArrayList<EventNode>(allEvents.size()
+				- dropped.size());
+		for (EventNode e : allEvents) {
+			if (!dropped.contains(e)) {
+				keptEvents.add(e);
+			}
+		}
+
+		ChainsTraceGraph graph = new ChainsTraceGraph(keptEvents);
+		for (List<List<Object>> key : representatives.keySet()) {
+			List<EventNode> events = representatives.get(key);
+			int multiplicity = multiplicities.get(key);
+			graph.addTrace(events, allEventRelations).setMultiplicity(
+					multiplicity);
+			for (EventNode e : events) {
+				e.setMultiplicity(multiplicity);
+			}
+		}
+		logger.info("Deduplicated " + partitions.size() + " traces into "
+				+ representatives.size() + " distinct traces.");
+		return graph;
+	}
+
 	/**
 	 * Given a list of log events that can be only partially ordered,
 	 * manipulates the builder to construct the corresponding trace graph.
@@ -1340,29 +1402,30 @@ public class TraceParser {
 		// Maintains nodes without predecessors.
 		Set<EventNode> noPredecessor = new LinkedHashSet<EventNode>(allEvents);
 
-		Set<EventNode> directSuccessors;
 		for (String partition : partitions.keySet()) {
 			List<EventNode> group = partitions.get(partition);
 
-			for (EventNode e1 : group) {
+			// In the partially ordered case there may be multiple direct
+			// successors.
+			List<Set<EventNode>> groupDirectSuccessors;
+			try {
+				groupDirectSuccessors = EventNode.getDirectPOSuccessors(group);
+			} catch (EqualVectorTimestampsException e) {
+				String error = "Found two events with identical timestamps: (1) "
+						+ e.e1.toString() + " (2) " + e.e2.toString();
+				logger.severe(error);
+				throw new ParseException(error);
 
-				// In the partially ordered case there may be multiple direct
-				// successors.
-				try {
-					directSuccessors = EventNode.getDirectPOSuccessors(e1,
-							group);
-				} catch (EqualVectorTimestampsException e) {
-					String error = "Found two events with identical timestamps: (1) "
-							+ e.e1.toString() + " (2) " + e.e2.toString();
-					logger.severe(error);
-					throw new ParseException(error);
+			} catch (NotComparableVectorsException e) {
+				String error = "Found two events with different length vector timestamps: (1) "
+						+ e.e1.toString() + " (2) " + e.e2.toString();
+				logger.severe(error);
+				throw new ParseException(error);
+			}
 
-				} catch (NotComparableVectorsException e) {
-					String error = "Found two events with different length vector timestamps: (1) "
-							+ e.e1.toString() + " (2) " + e.e2.toString();
-					logger.severe(error);
-					throw new ParseException(error);
-				}
+			for (int i = 0; i < group.size(); i++) {
+				EventNode e1 = group.get(i);
+				Set<EventNode> directSuccessors = groupDirectSuccessors.get(i);
 
 				if (directSuccessors.size() == 0) {
 					// Tag messages without successor as terminal.
@@ -8,7 +8,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -86,23 +85,15 @@ public class ChainsTraceGraph extends TraceGraph<StringEventType> {
 	 * @param events
 	 *            List of EventNodes in trace order
 	 * @param eventRelations
+	 * @return the new Trace
 	 * @throws ParseException
 	 *             if two events have identical timestamp.
 	 */
-	public void addTrace(List<EventNode> events,
+	public Trace addTrace(List<EventNode> events,
 			Map<EventNode, Set<Relation>> eventRelations) throws ParseException {
 		assert events.size() > 0;
 
-		if (!AbstractOptions.keepOrder) {
-			// Sort the events in this group/trace according to the totally
-			// order time relation.
-			Collections.sort(events, new Comparator<EventNode>() {
-				@Override
-				public int compare(EventNode e1, EventNode e2) {
-					return e1.getTime().compareTo(e2.getTime());
-				}
-			});
-		}
+		orderTrace(events);
 
 		Map<String, EventNode> lastSeenNodeForRelation = new HashMap<String, EventNode>();
 		EventNode prevNode = null;
@@ -181,6 +172,22 @@ public class ChainsTraceGraph extends TraceGraph<StringEventType> {
 			s.add(r.getRelation());
 		}
 		tagTerminal(prevNode, s);
+		return trace;
+	}
+
+	/**
+	 * Sorts the events of a trace according to the totally ordered time
+	 * relation, unless the keepOrder option is set.
+	 */
+	public static void orderTrace(List<EventNode> events) {
+		if (!AbstractOptions.keepOrder) {
+			Collections.sort(events, new Comparator<EventNode>() {
+				@Override
+				public int compare(EventNode e1, EventNode e2) {
+					return e1.getTime().compareTo(e2.getTime());
+				}
+			});
+		}
 	}
 
 	/**
@@ -198,41 +205,39 @@ public class ChainsTraceGraph extends TraceGraph<StringEventType> {
 	 * chain to it's transitive closure set. <br/>
 	 * <br/>
 	 * NOTE: an assumption of this code is that although there might be multiple
-	 * relations, the graph remains a linear chain.
+	 * relations, the graph remains a linear chain. <br/>
+	 * <br/>
+	 * Each run of nodes connected by transitions with exactly the relations
+	 * becomes a chain block of the closure, which takes no space per pair of
+	 * nodes.
 	 */
 	@Override
 	public TransitiveClosure getTransitiveClosure(Set<String> relations) {
 		assert relations != null;
 
 		TransitiveClosure transClosure = new TransitiveClosure(relations);
-		List<EventNode> prevNodes = new LinkedList<EventNode>();
+		List<EventNode> chain = new ArrayList<EventNode>();
 		for (EventNode firstNode : traceIdToInitNodes.values()) {
 			EventNode curNode = firstNode;
 
 			while (!curNode.isTerminal()) {
-				prevNodes.clear();
+				chain.clear();
 
 				while (curNode.getTransitionsWithExactRelations(relations)
 						.size() == 1) {
-					for (EventNode prevNode : prevNodes) {
-						transClosure.recordTransitiveReachability(prevNode,
-								curNode);
-					}
-					prevNodes.add(curNode);
+					chain.add(curNode);
 					curNode = curNode
 							.getTransitionsWithExactRelations(relations).get(0)
 							.getTarget();
 				}
 
 				if (!curNode.isTerminal()) {
-					for (EventNode prevNode : prevNodes) {
-						transClosure.recordTransitiveReachability(prevNode,
-								curNode);
-					}
+					chain.add(curNode);
 
 					assert curNode.getAllSuccessors().size() == 1;
 					curNode = curNode.getAllSuccessors().iterator().next();
 				}
+				transClosure.addChain(chain);
 			}
 		}
 		return transClosure;
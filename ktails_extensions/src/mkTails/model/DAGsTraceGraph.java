@@ -1,21 +1,25 @@
 package mkTails.model;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import mkTails.algorithms.FloydWarshall;
 import mkTails.algorithms.TransitiveClosure;
+import mkTails.main.AbstractMain;
 import mkTails.model.event.DistEventType;
 import mkTails.model.event.Event;
 import mkTails.model.interfaces.ITransition;
+import mkTails.util.Parallel;
 
 public class DAGsTraceGraph extends TraceGraph<DistEventType> {
 	static Event								initEvent			= Event.newInitialDistEvent();
@@ -85,15 +89,19 @@ public class DAGsTraceGraph extends TraceGraph<DistEventType> {
 	/**
 	 * Returns the transitive closure of the DAG trace graph. Computes the
 	 * transitive closure using Floyd Warshall algorithm (if useFloydWarshall ==
-	 * true), otherwise uses the more optimized Goralcikova algorithm.
+	 * true), otherwise uses the more optimized Goralcikova algorithm. Either
+	 * way, the traces are closed on the number of threads given by the threads
+	 * option.
 	 */
 	public TransitiveClosure getTransitiveClosure(Set<String> relations,
 			boolean useFloydWarshall) {
+		AbstractMain main = AbstractMain.getInstance();
+		int threads = main == null ? 1 : main.options.threads;
 		if (useFloydWarshall) {
-			return FloydWarshall.warshallAlg(this, relations);
+			return FloydWarshall.warshallAlg(this, relations, threads);
 		}
 
-		return goralcikovaAlg(relations);
+		return goralcikovaAlg(relations, threads);
 	}
 
 	@Override
@@ -102,36 +110,31 @@ public class DAGsTraceGraph extends TraceGraph<DistEventType> {
 	}
 
 	/**
-	 * This function takes a collection of transitions, and a list of nodes that
-	 * are somehow canonically ordered. It returns a list of nodes that the
-	 * transitions point to, in an order that is compatible with the canonical
-	 * ordering.
+	 * This function takes a collection of transitions, and a map of nodes to
+	 * their positions in some canonical order. It returns a list of nodes that
+	 * the transitions point to, in an order that is compatible with the
+	 * canonical ordering. Targets that are not in the order are left out.
 	 * 
 	 * @param unorderedTrans
-	 * @param orderedSuperList
+	 * @param orderMap
 	 * @return
 	 */
 	private List<EventNode> getSubSortedList(
 			Collection<? extends ITransition<EventNode>> unorderedTrans,
-			List<EventNode> orderedSuperList) {
-
-		// TODO: this is inefficient because in the worst case it is n^2.
-		// Ideally, this would do the following:
-		// 1. Add all nodes in unordered to subList
-		// 2. Sort subList using a comparator that uses the relative position of
-		// elements in the orderedSuperList for computing the order of elements.
-
-		List<EventNode> subList = new LinkedList<EventNode>();
-		Set<EventNode> unorderedNodes = new LinkedHashSet<EventNode>();
+			final Map<EventNode, Integer> orderMap) {
+		List<EventNode> subList = new ArrayList<EventNode>();
 		for (ITransition<EventNode> trans : unorderedTrans) {
-			unorderedNodes.add(trans.getTarget());
-		}
-
-		for (EventNode n : orderedSuperList) {
-			if (unorderedNodes.contains(n)) {
+			EventNode n = trans.getTarget();
+			if (orderMap.containsKey(n) && !subList.contains(n)) {
 				subList.add(n);
 			}
 		}
+		Collections.sort(subList, new Comparator<EventNode>() {
+			@Override
+			public int compare(EventNode n1, EventNode n2) {
+				return orderMap.get(n1).compareTo(orderMap.get(n2));
+			}
+		});
 		return subList;
 	}
 
@@ -150,103 +153,70 @@ public class DAGsTraceGraph extends TraceGraph<DistEventType> {
 	 * DOI: 10.1007/3-540-16761-7_87
 	 * </pre>
 	 */
-	@SuppressWarnings("unused")
-	private TransitiveClosure goralcikovaAlg(Set<String> relations) {
-		TransitiveClosure transClosure = new TransitiveClosure(relations);
-		Map<EventNode, Set<EventNode>> tc = transClosure.getTC();
-
-		List<EventNode> sortedNodes = new LinkedList<EventNode>();
+	private TransitiveClosure goralcikovaAlg(final Set<String> relations,
+			int threads) {
+		// Traces are independent, so every trace is closed in a separate
+		// task, into a closure of its own. The closures of the traces are
+		// then merged in the order of the traces.
+		final List<Integer> traceIds = new ArrayList<Integer>(
+				traceIdToInitNodes.keySet());
+		final TransitiveClosure[] traceClosures = new TransitiveClosure[traceIds
+				.size()];
+		Parallel.forEachIndex(threads, traceIds.size(), new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				traceClosures[i] = goralcikovaAlg(traceIds.get(i), relations);
+			}
+		});
 
-		// Maps a node to its parents in the transitive closure. This map is
-		// cleared whenever we start processing a new DAG/Chain (a new PO/TO
-		// trace).
-		HashMap<EventNode, HashSet<EventNode>> tcParents = new HashMap<EventNode, HashSet<EventNode>>();
+		TransitiveClosure transClosure = new TransitiveClosure(relations);
+		for (TransitiveClosure traceClosure : traceClosures) {
+			transClosure.addAll(traceClosure);
+		}
+		return transClosure;
+	}
 
-		Set<EventNode> bfsPerimeter = new LinkedHashSet<EventNode>();
-		List<EventNode> topoOrder;
-		List<EventNode> reverseTopoOrder = new LinkedList<EventNode>();
+	/**
+	 * Returns the transitive closure of the DAG of trace traceid, by the
+	 * algorithm of Goralcikova and Koubek. This only reads the graph, so it
+	 * can run for several traces at once.
+	 */
+	private TransitiveClosure goralcikovaAlg(int traceid, Set<String> relations) {
+		TransitiveClosure transClosure = new TransitiveClosure(relations);
 
-		// Maps a node to a set of parent nodes -- nodes that have a transitions
-		// to this node.
-		Map<EventNode, Set<EventNode>> parentsMap = new LinkedHashMap<EventNode, Set<EventNode>>();
+		// 1. Get the nodes sorted in some topological order.
+		List<EventNode> topoOrder = computeTopologicalOrder(traceid, relations);
+		// The nodes of the DAG reach only each other (and TERMINAL), so they
+		// form a block of the closure.
+		transClosure.addBlock(topoOrder);
 
 		// Maps a node in the topological order to its position in the order.
-		Map<EventNode, Integer> orderMap = new LinkedHashMap<EventNode, Integer>();
-
-		List<EventNode> subSortedList;
-
-		// Process each DAG separately.
-		for (Set<EventNode> dagInits : traceIdToInitNodes.values()) {
-
-			// 1. Get the nodes sorted in some topological order.
-			topoOrder = computeTopologicalOrder(dagInits, relations);
-
-			// TODO: Potential optimization
-			// 2. Build the order map -- this maps a node from the topological
-			// order to its position in the order. We use this map to derive
-			// sublists that are sorted from sets of nodes (that are not
-			// necessarily contiguous in the order).
-			// int counter = 0;
-			// for (EventNode n : topoOrder) {
-			// orderMap.put(n, counter);
-			// counter++;
-			// }
-
-			// 2. Construct the implicit reverse graph -- the graph that is
-			// formed by reversing all the edges (by constructing the
-			// parentsMap).
-			bfsPerimeter.addAll(dagInits);
-			while (bfsPerimeter.size() != 0) {
-				for (EventNode m : bfsPerimeter) {
-					addToBFSPerimeter(bfsPerimeter, m, null, parentsMap,
-							relations);
-					bfsPerimeter.remove(m);
-					break;
-				}
-			}
-			bfsPerimeter.clear();
-
-			// 3. Traverse the reverse graph from the terminal nodes, building
-			// up the transitive relation for a node in an order specified by
-			// the REVERSE topological order of the node's children (see paper
-			// for more details).
-
-			// TODO: figure out how topoOrder.retainAll() works -- what does
-			// retainAll mean for a List?
-
-			reverseTopoOrder.addAll(topoOrder);
-			Collections.reverse(reverseTopoOrder);
-
-			for (EventNode m : reverseTopoOrder) {
-				// logger.fine("tc map is: " + tc.toString());
-				// logger.fine("Handling node " + m.toString());
-
-				// Retrieve a sorted list of m's children based on the topoOrder
-				// that was computed earlier for all the nodes in the graph.
-				subSortedList = getSubSortedList(
-						m.getTransitionsWithExactRelations(relations),
-						topoOrder);
-
-				for (EventNode child : subSortedList) {
-					if (!transClosure.isReachable(m, child)) {
-						// NOTE: addReachable is necessary before
-						// mergeReachables because the set of reachable nodes
-						// corresponding to m does not exist initially and
-						// mergeReachables does not check for existence of this
-						// set (should it?)
-						transClosure.recordTransitiveReachability(m, child);
-						transClosure.mergeReachables(child, m);
-					}
+		// We use this map to sort the children of nodes.
+		Map<EventNode, Integer> orderMap = new HashMap<EventNode, Integer>();
+		for (EventNode n : topoOrder) {
+			orderMap.put(n, orderMap.size());
+		}
+
+		// 2. Traverse the DAG from the terminal nodes, building up the
+		// transitive relation for a node in an order specified by the REVERSE
+		// topological order of the node's children (see paper for more
+		// details).
+		List<EventNode> reverseTopoOrder = new ArrayList<EventNode>(topoOrder);
+		Collections.reverse(reverseTopoOrder);
+
+		for (EventNode m : reverseTopoOrder) {
+			// Retrieve a sorted list of m's children based on the topoOrder
+			// that was computed earlier for all the nodes in the graph.
+			List<EventNode> subSortedList = getSubSortedList(
+					m.getTransitionsWithExactRelations(relations), orderMap);
+
+			for (EventNode child : subSortedList) {
+				if (!transClosure.isReachable(m, child)) {
+					transClosure.recordTransitiveReachability(m, child);
+					transClosure.mergeReachables(child, m);
 				}
 			}
-			// We do not need the following information between different
-			// traces:
-			tcParents.clear();
-			parentsMap.clear();
-			reverseTopoOrder.clear();
-			topoOrder.clear();
 		}
-		// logger.fine("FINAL tc map is: " + tc.toString());
 		return transClosure;
 	}
 
@@ -18,6 +18,7 @@ import mkTails.model.interfaces.ITransition;
 import mkTails.model.state.State;
 import mkTails.util.time.EqualVectorTimestampsException;
 import mkTails.util.time.ITime;
+import mkTails.util.time.VectorClockIndex;
 
 /**
  * The event node class -- a node in a graph that contains an event.
@@ -48,6 +49,12 @@ public class EventNode implements INode<EventNode> {
 	 */
 	private int											traceID					= 0;
 
+	/**
+	 * The number of identical traces that the trace of this event stands for
+	 * (see the deduplicateTraces option)
+	 */
+	private int											multiplicity			= 1;
+
 	List<Transition<EventNode>>							transitions				= new ArrayList<Transition<EventNode>>();
 
 	/**
@@ -64,6 +71,13 @@ public class EventNode implements INode<EventNode> {
 	 */
 	private EventNode									processLocalSucc		= null;
 
+	/**
+	 * The dense id of this event node in denseIdDictionary. Both are set on the
+	 * first call to getDenseId().
+	 */
+	private int											denseId					= -1;
+	private volatile EventNodeDictionary				denseIdDictionary		= null;
+
 	private void setProcessLocalSuccessor(EventNode processLocalSucc) {
 		assert this.processLocalSucc == null;
 
@@ -105,6 +119,41 @@ public class EventNode implements INode<EventNode> {
 		postEventState = null;
 	}
 
+	/**
+	 * Returns the dense id of this event node. On first use, the event node
+	 * is given the next id in the EventNodeDictionary of the current run, and
+	 * it keeps that id (in that dictionary) from then on.
+	 */
+	public int getDenseId() {
+		if (denseIdDictionary == null) {
+			EventNodeDictionary dictionary = EventNodeDictionary.getInstance();
+			synchronized (dictionary) {
+				if (denseIdDictionary == null) {
+					denseId = dictionary.register(this);
+					denseIdDictionary = dictionary;
+				}
+			}
+		}
+		return denseId;
+	}
+
+	/**
+	 * Returns the dictionary of the dense id of this event node, see
+	 * getDenseId().
+	 */
+	EventNodeDictionary getDenseIdDictionary() {
+		getDenseId();
+		return denseIdDictionary;
+	}
+
+	/**
+	 * Whether this event node has a dense id in the given dictionary. Unlike
+	 * getDenseId(), this does not give the event node an id.
+	 */
+	boolean hasDenseIdIn(EventNodeDictionary dictionary) {
+		return dictionary != null && denseIdDictionary == dictionary;
+	}
+
 	@Override
 	public Partition getParent() {
 		return parent;
@@ -162,9 +211,54 @@ public class EventNode implements INode<EventNode> {
 	public void addTransition(EventNode dest, String relation) {
 		assert dest != null : "Transition Target cannot be null";
 
-		Set<String> relations = new LinkedHashSet<String>();
-		relations.add(relation);
-		addTransition(new Transition<EventNode>(this, dest, relations));
+		addTransition(new Transition<EventNode>(this, dest, relation));
+	}
+
+	/**
+	 * Finds the _direct_ successors of every node in allNodes, among allNodes
+	 * (see getDirectPOSuccessors(e1, allNodes)), and returns them by the
+	 * position of the node in allNodes. If the timestamps of the nodes are
+	 * vector clocks, this uses a VectorClockIndex of the nodes, in O(n P^2)
+	 * time for n nodes and P processes. Otherwise it falls back to calling
+	 * getDirectPOSuccessors(e1, allNodes) for every node e1. Either way, the
+	 * process-local successors of the nodes go by the pids of their event
+	 * types (see VectorClockIndex.getProcessLocalSuccessors).
+	 * 
+	 * @param allNodes
+	 * @return
+	 */
+	public static List<Set<EventNode>> getDirectPOSuccessors(
+			List<EventNode> allNodes) {
+		List<Set<EventNode>> ret = new ArrayList<Set<EventNode>>(
+				allNodes.size());
+		VectorClockIndex index = VectorClockIndex.build(allNodes);
+		if (index == null) {
+			for (EventNode e1 : allNodes) {
+				ret.add(getDirectPOSuccessors(e1, allNodes));
+			}
+			return ret;
+		}
+
+		List<List<EventNode>> successors = index.getDirectSuccessors();
+		for (int i = 0; i < allNodes.size(); i++) {
+			ret.add(new LinkedHashSet<EventNode>(successors.get(i)));
+		}
+
+		// ///////////////// CSight-related:
+		// The process-local successor is by the pid of the event type, as in
+		// getDirectPOSuccessors(e1, allNodes), not by the process that the
+		// index infers from the clocks.
+		int[] pids = new int[allNodes.size()];
+		for (int i = 0; i < allNodes.size(); i++) {
+			pids[i] = ((DistEventType) allNodes.get(i).getEType()).getPid();
+		}
+		List<EventNode> processLocalSuccs = index
+				.getProcessLocalSuccessors(pids);
+		for (int i = 0; i < allNodes.size(); i++) {
+			allNodes.get(i).setProcessLocalSuccessor(processLocalSuccs.get(i));
+		}
+		// /////////////////
+		return ret;
 	}
 
 	/**
@@ -375,6 +469,14 @@ public class EventNode implements INode<EventNode> {
 		return traceID;
 	}
 
+	public void setMultiplicity(int multiplicity) {
+		this.multiplicity = multiplicity;
+	}
+
+	public int getMultiplicity() {
+		return multiplicity;
+	}
+
 	public String getFullFileName() {
 		return event.getFileName();
 	}
@@ -407,9 +509,11 @@ public class EventNode implements INode<EventNode> {
 			Set<String> relations) {
 		Set<Transition<EventNode>> ret = null;
 		// Iterate through all transitions, adding those to ret that have
-		// exactly the input relations associated with them.
+		// exactly the input relations associated with them. The relations of
+		// transitions are interned, so this compares references.
+		relations = InternedRelationSet.intern(relations);
 		for (Transition<EventNode> t : transitions) {
-			if (t.getRelation().equals(relations)) {
+			if (t.getRelation() == relations) {
 				if (ret == null) {
 					ret = new LinkedHashSet<Transition<EventNode>>();
 				}
@@ -0,0 +1,76 @@
+package mkTails.model;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids -- 0, 1, 2, ... in order of first appearance -- to the
+ * event nodes of a run, and maps the ids back to the event nodes. Sets of
+ * event nodes can then be kept as sets of ids (see EventNodeSet). There is one
+ * dictionary per run, which is replaced by reset(). An event node keeps the id
+ * it was first given, in the dictionary of its run, so a reset does not affect
+ * the event nodes (and the sets of them) of earlier runs; once those are
+ * unreachable, so is their dictionary.
+ */
+public class EventNodeDictionary {
+
+	private static volatile EventNodeDictionary	instance	= new EventNodeDictionary();
+
+	/**
+	 * The event nodes by id. The array is replaced when it grows, and
+	 * republished whenever an event node is added, so a reader of the field
+	 * sees all the event nodes that had ids when it was read.
+	 */
+	private volatile EventNode[]				eNodes		= new EventNode[64];
+
+	private int									size		= 0;
+
+	/**
+	 * Returns the dictionary of the current run.
+	 */
+	public static EventNodeDictionary getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts a new dictionary for a new run, in which the event nodes that do
+	 * not have an id yet are given one.
+	 */
+	public static void reset() {
+		instance = new EventNodeDictionary();
+	}
+
+	/**
+	 * Assigns the next id to eNode. Only EventNode.getDenseId() calls this,
+	 * while holding the lock of the dictionary.
+	 */
+	synchronized int register(EventNode eNode) {
+		EventNode[] nodes = eNodes;
+		if (size == nodes.length) {
+			nodes = Arrays.copyOf(nodes, 2 * size);
+		}
+		nodes[size] = eNode;
+		eNodes = nodes;
+		return size++;
+	}
+
+	/**
+	 * Returns the event nodes by id. The array must not be modified.
+	 */
+	EventNode[] getEventNodes() {
+		return eNodes;
+	}
+
+	/**
+	 * Returns the event node with the given id.
+	 */
+	public EventNode getEventNode(int id) {
+		return eNodes[id];
+	}
+
+	/**
+	 * Returns the number of ids assigned so far, which bounds all ids.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,552 @@
+package mkTails.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of event nodes that is kept as the dense ids of its event nodes (see
+ * EventNode.getDenseId()): as a sorted int array while the ids are sparse in
+ * their range, and as a bitmap over that range once they are dense. A set
+ * keeps its bitmap while it has at least one event node per 64-bit word, so
+ * it can take up to eight bytes per event node. The bulk operations with
+ * other EventNodeSets -- addAll, removeAll and retainAll -- merge sorted
+ * arrays or combine the bitmaps a word at a time. Iteration follows the order
+ * of the ids, i.e., the order in which the event nodes were first put in a
+ * set.<br />
+ * <br />
+ * The event nodes of a set must all have their ids in the same dictionary,
+ * i.e., come from the same run. A set is not thread-safe, and its iterators do
+ * not detect concurrent modifications other than their own removals.
+ */
+public final class EventNodeSet extends AbstractSet<EventNode> {
+	private static final int[]	NO_IDS	= new int[0];
+
+	/**
+	 * The ids of the set, sorted, in ids[0..size) -- unless the set is a
+	 * bitmap, in which case ids is null.
+	 */
+	private int[]				ids		= NO_IDS;
+
+	/**
+	 * The bitmap of the set, or null if the set is a sorted array. Bit b of
+	 * words[i] stands for id 64 * (firstWord + i) + b.
+	 */
+	private long[]				words	= null;
+
+	private int					firstWord;
+
+	private int					size	= 0;
+
+	/**
+	 * The dictionary of the ids, which is that of the first event node added
+	 * to the set, or null if the set is empty.
+	 */
+	private EventNodeDictionary	dictionary;
+
+	/**
+	 * Creates an empty set.
+	 */
+	public EventNodeSet() {
+	}
+
+	/**
+	 * Creates a set of the event nodes of c.
+	 */
+	public EventNodeSet(Collection<? extends EventNode> c) {
+		addAll(c);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return isOwnEventNode(o) && containsId(((EventNode) o).getDenseId());
+	}
+
+	/**
+	 * Whether o is an event node with its id in the dictionary of this set.
+	 * An event node without an id is in no set, and is not given an id.
+	 */
+	private boolean isOwnEventNode(Object o) {
+		return o instanceof EventNode
+				&& ((EventNode) o).hasDenseIdIn(dictionary);
+	}
+
+	private boolean containsId(int id) {
+		if (words == null) {
+			return Arrays.binarySearch(ids, 0, size, id) >= 0;
+		}
+		int i = (id >> 6) - firstWord;
+		return i >= 0 && i < words.length && (words[i] & (1L << id)) != 0;
+	}
+
+	@Override
+	public boolean add(EventNode e) {
+		int id = e.getDenseId();
+		if (size == 0) {
+			clear();
+			dictionary = e.getDenseIdDictionary();
+		}
+		assert e.getDenseIdDictionary() == dictionary : "event nodes of "
+				+ "different runs";
+		if (words != null) {
+			int word = id >> 6;
+			if (word < firstWord || word >= firstWord + words.length) {
+				// Outside the bitmap: keep the bitmap only if it stays dense
+				// over the span that it grows to.
+				int low = Math.min(word, firstWord + lowestWord());
+				int high = Math.max(word, firstWord + highestWord());
+				if (size + 1 < high - low + 1) {
+					toSortedArray();
+				}
+			}
+		}
+		if (words != null) {
+			ensureWords(id >> 6, id >> 6);
+			int i = (id >> 6) - firstWord;
+			if ((words[i] & (1L << id)) != 0) {
+				return false;
+			}
+			words[i] |= 1L << id;
+			size++;
+			return true;
+		}
+
+		int pos = Arrays.binarySearch(ids, 0, size, id);
+		if (pos >= 0) {
+			return false;
+		}
+		pos = -pos - 1;
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+		}
+		System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+		ids[pos] = id;
+		size++;
+		if (size > 2 * spanWords(ids[0], ids[size - 1])) {
+			toBitmap();
+		}
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!isOwnEventNode(o) || !removeId(((EventNode) o).getDenseId())) {
+			return false;
+		}
+		if (words == null || size < words.length) {
+			// A bitmap may have become sparser than one id per word, and an
+			// array may have room to trim.
+			normalize();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes an id without changing the representation of the set, which
+	 * keeps the iterators valid.
+	 */
+	private boolean removeId(int id) {
+		if (words != null) {
+			int i = (id >> 6) - firstWord;
+			if (i < 0 || i >= words.length || (words[i] & (1L << id)) == 0) {
+				return false;
+			}
+			words[i] &= ~(1L << id);
+			size--;
+			return true;
+		}
+
+		int pos = Arrays.binarySearch(ids, 0, size, id);
+		if (pos < 0) {
+			return false;
+		}
+		System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+		size--;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		ids = NO_IDS;
+		words = null;
+		firstWord = 0;
+		size = 0;
+		dictionary = null;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends EventNode> c) {
+		EventNodeSet other = asEventNodeSet(c, true);
+		if (other == this || other.size == 0) {
+			return false;
+		}
+		assert size == 0 || other.dictionary == dictionary : "event nodes of "
+				+ "different runs";
+		int oldSize = size;
+		if (size == 0) {
+			dictionary = other.dictionary;
+			ids = other.ids == null ? null : Arrays.copyOf(other.ids,
+					other.size);
+			words = other.words == null ? null : other.words.clone();
+			firstWord = other.firstWord;
+			size = other.size;
+		} else if (words == null && other.words == null) {
+			// Merge the sorted arrays.
+			int[] merged = new int[size + other.size];
+			int i = 0, j = 0, n = 0;
+			while (i < size && j < other.size) {
+				int a = ids[i], b = other.ids[j];
+				merged[n++] = a <= b ? a : b;
+				i += a <= b ? 1 : 0;
+				j += b <= a ? 1 : 0;
+			}
+			while (i < size) {
+				merged[n++] = ids[i++];
+			}
+			while (j < other.size) {
+				merged[n++] = other.ids[j++];
+			}
+			ids = merged;
+			size = n;
+		} else {
+			toBitmap();
+			if (other.words == null) {
+				ensureWords(other.ids[0] >> 6, other.ids[other.size - 1] >> 6);
+				for (int j = 0; j < other.size; j++) {
+					int id = other.ids[j];
+					int i = (id >> 6) - firstWord;
+					if ((words[i] & (1L << id)) == 0) {
+						words[i] |= 1L << id;
+						size++;
+					}
+				}
+			} else {
+				ensureWords(other.firstWord, other.firstWord
+						+ other.words.length - 1);
+				int offset = other.firstWord - firstWord;
+				for (int j = 0; j < other.words.length; j++) {
+					long added = other.words[j] & ~words[offset + j];
+					words[offset + j] |= added;
+					size += Long.bitCount(added);
+				}
+			}
+		}
+		normalize();
+		return size != oldSize;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		EventNodeSet other = asEventNodeSet(c, false);
+		if (other == this) {
+			boolean changed = size > 0;
+			clear();
+			return changed;
+		}
+		if (size == 0 || other.size == 0 || other.dictionary != dictionary) {
+			return false;
+		}
+		int oldSize = size;
+		if (words == null) {
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (!other.containsId(ids[i])) {
+					ids[n++] = ids[i];
+				}
+			}
+			size = n;
+		} else if (other.words == null) {
+			for (int j = 0; j < other.size; j++) {
+				removeId(other.ids[j]);
+			}
+		} else {
+			int offset = other.firstWord - firstWord;
+			int from = Math.max(0, -offset);
+			int to = Math.min(other.words.length, words.length - offset);
+			for (int j = from; j < to; j++) {
+				long removed = words[offset + j] & other.words[j];
+				words[offset + j] &= ~removed;
+				size -= Long.bitCount(removed);
+			}
+		}
+		normalize();
+		return size != oldSize;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		EventNodeSet other = asEventNodeSet(c, false);
+		if (other == this || size == 0) {
+			return false;
+		}
+		if (other.dictionary != dictionary) {
+			clear();
+			return true;
+		}
+		int oldSize = size;
+		if (words == null) {
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (other.containsId(ids[i])) {
+					ids[n++] = ids[i];
+				}
+			}
+			size = n;
+		} else if (other.words == null) {
+			long[] retained = new long[words.length];
+			size = 0;
+			for (int j = 0; j < other.size; j++) {
+				int id = other.ids[j];
+				if (containsId(id)) {
+					retained[(id >> 6) - firstWord] |= 1L << id;
+					size++;
+				}
+			}
+			words = retained;
+		} else {
+			int offset = other.firstWord - firstWord;
+			size = 0;
+			for (int i = 0; i < words.length; i++) {
+				int j = i - offset;
+				words[i] &= j >= 0 && j < other.words.length ? other.words[j]
+						: 0;
+				size += Long.bitCount(words[i]);
+			}
+		}
+		normalize();
+		return size != oldSize;
+	}
+
+	@Override
+	public Iterator<EventNode> iterator() {
+		return new Iter();
+	}
+
+	/**
+	 * Returns c if it is an EventNodeSet, and otherwise a new EventNodeSet of
+	 * the event nodes in c, which the bulk operations can work on. When
+	 * adding, the new set takes all the event nodes of c, which must have
+	 * their ids in the dictionary of this set (or, if this set is empty, in
+	 * that of the first event node of c). Otherwise it takes only the event
+	 * nodes with ids in the dictionary of this set, and does not give ids to
+	 * the others.
+	 */
+	private EventNodeSet asEventNodeSet(Collection<?> c, boolean adding) {
+		if (c instanceof EventNodeSet) {
+			return (EventNodeSet) c;
+		}
+		EventNodeSet set = new EventNodeSet();
+		set.dictionary = dictionary;
+		int[] cIds = new int[c.size()];
+		int n = 0;
+		for (Object o : c) {
+			if (!(o instanceof EventNode)) {
+				continue;
+			}
+			EventNode e = (EventNode) o;
+			if (!adding) {
+				// Event nodes that are not in this set are left out, without
+				// giving them ids.
+				if (e.hasDenseIdIn(set.dictionary)) {
+					cIds[n++] = e.getDenseId();
+				}
+				continue;
+			}
+			if (set.dictionary == null) {
+				set.dictionary = e.getDenseIdDictionary();
+			}
+			assert e.getDenseIdDictionary() == set.dictionary : "event nodes of "
+					+ "different runs";
+			cIds[n++] = e.getDenseId();
+		}
+		Arrays.sort(cIds, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || cIds[i] != cIds[distinct - 1]) {
+				cIds[distinct++] = cIds[i];
+			}
+		}
+		set.ids = cIds;
+		set.size = distinct;
+		return set;
+	}
+
+	private static int spanWords(int minId, int maxId) {
+		return (maxId >> 6) - (minId >> 6) + 1;
+	}
+
+	/**
+	 * Returns the smallest id of the bitmap that is at least from, or -1 if
+	 * there is none.
+	 */
+	private int nextId(int from) {
+		int i = (from >> 6) - firstWord;
+		long word;
+		if (i < 0) {
+			i = 0;
+			word = words[0];
+		} else if (i < words.length) {
+			word = words[i] & (-1L << from);
+		} else {
+			return -1;
+		}
+		while (word == 0) {
+			if (++i == words.length) {
+				return -1;
+			}
+			word = words[i];
+		}
+		return ((firstWord + i) << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Extends the bitmap to the words lowWord..highWord, with some slack in
+	 * the direction that it grows in.
+	 */
+	private void ensureWords(int lowWord, int highWord) {
+		int lastWord = firstWord + words.length - 1;
+		if (lowWord >= firstWord && highWord <= lastWord) {
+			return;
+		}
+		int slack = words.length / 2;
+		int newFirst = lowWord < firstWord ? Math.max(0, lowWord - slack)
+				: firstWord;
+		int newLast = highWord > lastWord ? highWord + slack : lastWord;
+		long[] newWords = new long[newLast - newFirst + 1];
+		System.arraycopy(words, 0, newWords, firstWord - newFirst,
+				words.length);
+		words = newWords;
+		firstWord = newFirst;
+	}
+
+	/** Turns a non-empty sorted array into a bitmap. */
+	private void toBitmap() {
+		if (words != null) {
+			return;
+		}
+		firstWord = ids[0] >> 6;
+		words = new long[spanWords(ids[0], ids[size - 1])];
+		for (int i = 0; i < size; i++) {
+			words[(ids[i] >> 6) - firstWord] |= 1L << ids[i];
+		}
+		ids = null;
+	}
+
+	/** Turns a non-empty bitmap into a sorted array. */
+	private void toSortedArray() {
+		int[] sorted = new int[size];
+		int n = 0;
+		int id = nextId(Integer.MIN_VALUE);
+		while (id != -1) {
+			sorted[n++] = id;
+			id = nextId(id + 1);
+		}
+		words = null;
+		firstWord = 0;
+		ids = sorted;
+	}
+
+	/** The index of the first non-zero word of a non-empty bitmap. */
+	private int lowestWord() {
+		int low = 0;
+		while (words[low] == 0) {
+			low++;
+		}
+		return low;
+	}
+
+	/** The index of the last non-zero word of a non-empty bitmap. */
+	private int highestWord() {
+		int high = words.length - 1;
+		while (words[high] == 0) {
+			high--;
+		}
+		return high;
+	}
+
+	/**
+	 * Picks the representation that takes less space (with some hysteresis,
+	 * so that sets near the threshold do not flip between the two), and trims
+	 * the unused parts of the arrays.
+	 */
+	private void normalize() {
+		if (size == 0) {
+			clear();
+			return;
+		}
+		if (words == null) {
+			if (size > 2 * spanWords(ids[0], ids[size - 1])) {
+				toBitmap();
+			} else if (ids.length > 2 * size) {
+				ids = Arrays.copyOf(ids, size);
+			}
+			return;
+		}
+
+		int low = lowestWord();
+		int high = highestWord();
+		if (size < high - low + 1) {
+			toSortedArray();
+		} else if (low > 0 || high < words.length - 1) {
+			words = Arrays.copyOfRange(words, low, high + 1);
+			firstWord += low;
+		}
+	}
+
+	/**
+	 * Iterates over the ids in increasing order. Removals through the
+	 * iterator keep the representation of the set, see removeId.
+	 */
+	private final class Iter implements Iterator<EventNode> {
+		private final EventNode[]	eNodes	= dictionary == null ? null
+													: dictionary
+															.getEventNodes();
+
+		/** The next position in ids, if the set is a sorted array. */
+		private int					pos		= 0;
+
+		/** The next id, if the set is a bitmap. */
+		private int					nextId	= words == null || size == 0 ? -1
+													: nextId(Integer.MIN_VALUE);
+
+		private int					lastId	= -1;
+
+		@Override
+		public boolean hasNext() {
+			return words == null ? pos < size : nextId != -1;
+		}
+
+		@Override
+		public EventNode next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (words == null) {
+				lastId = ids[pos++];
+			} else {
+				lastId = nextId;
+				nextId = nextId(lastId + 1);
+			}
+			return eNodes[lastId];
+		}
+
+		@Override
+		public void remove() {
+			if (lastId == -1) {
+				throw new IllegalStateException();
+			}
+			removeId(lastId);
+			if (words == null) {
+				pos--;
+			}
+			lastId = -1;
+		}
+	}
+}
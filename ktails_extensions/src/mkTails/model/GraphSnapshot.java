@@ -0,0 +1,210 @@
+package mkTails.model;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import mkTails.model.interfaces.IGraph;
+import mkTails.model.interfaces.INode;
+
+/**
+ * An immutable snapshot of the nodes and adjacency of a graph, in compressed
+ * sparse row form: the nodes are numbered 0..n-1 in the order of
+ * {@code getNodes()}, and the successors of node i are
+ * {@code targets[offsets[i]..offsets[i+1])}. The event type of each node is
+ * kept as its dense id (see EventType.getDenseId()).<br />
+ * <br />
+ * Read-only analyses may traverse the arrays directly through the int-based
+ * methods. The snapshot also implements IGraph, with adjacency sets that are
+ * views over the arrays created once with the snapshot. A snapshot can be
+ * read from several threads at once.
+ */
+public final class GraphSnapshot<T extends INode<T>> implements IGraph<T> {
+	private final List<T>			nodes;
+	private final Map<T, Integer>	ids;
+	private final int[]				offsets;
+	private final int[]				targets;
+	private final int[]				eTypeIds;
+	private final int				initialId;
+	private final Set<String>		relations;
+
+	private final Set<T>			nodeSet;
+	private final List<Set<T>>		adjacentNodes;
+
+	/**
+	 * Takes a snapshot of g.
+	 */
+	public GraphSnapshot(IGraph<T> g) {
+		nodes = new ArrayList<T>(g.getNodes());
+		int n = nodes.size();
+		ids = new HashMap<T, Integer>(2 * n);
+		eTypeIds = new int[n];
+		for (int i = 0; i < n; i++) {
+			ids.put(nodes.get(i), i);
+			eTypeIds[i] = nodes.get(i).getEType().getDenseId();
+		}
+
+		offsets = new int[n + 1];
+		int numEdges = 0;
+		int[] edges = new int[Math.max(16, n)];
+		for (int i = 0; i < n; i++) {
+			offsets[i] = numEdges;
+			for (T succ : g.getAdjacentNodes(nodes.get(i))) {
+				if (numEdges == edges.length) {
+					edges = Arrays.copyOf(edges, 2 * numEdges);
+				}
+				edges[numEdges++] = getId(succ);
+			}
+		}
+		offsets[n] = numEdges;
+		targets = Arrays.copyOf(edges, numEdges);
+
+		T initial = g.getDummyInitialNode();
+		initialId = initial == null ? -1 : getId(initial);
+		relations = Collections.unmodifiableSet(new LinkedHashSet<String>(g
+				.getRelations()));
+
+		nodeSet = Collections.unmodifiableSet(new LinkedHashSet<T>(nodes));
+		adjacentNodes = new ArrayList<Set<T>>(n);
+		for (int i = 0; i < n; i++) {
+			adjacentNodes.add(new SuccessorSet(i));
+		}
+	}
+
+	/** Returns the number of nodes. */
+	public int getNumNodes() {
+		return nodes.size();
+	}
+
+	/** Returns the id of a node of the snapshot. */
+	public int getId(T node) {
+		Integer id = ids.get(node);
+		if (id == null) {
+			throw new IllegalArgumentException("Node " + node
+					+ " is not in the snapshot.");
+		}
+		return id;
+	}
+
+	/** Returns the node with the given id. */
+	public T getNode(int id) {
+		return nodes.get(id);
+	}
+
+	/** Returns the id of the dummy initial node, or -1 if there is none. */
+	public int getInitialId() {
+		return initialId;
+	}
+
+	/** Returns the dense id of the event type of the node with the given id. */
+	public int getETypeId(int id) {
+		return eTypeIds[id];
+	}
+
+	/**
+	 * Returns the offsets of the successor lists: the successors of node i are
+	 * at indices offsets[i] (inclusive) to offsets[i+1] (exclusive) of the
+	 * targets. The array must not be modified.
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Returns the ids of the successors of all nodes, see getOffsets. The
+	 * array must not be modified.
+	 */
+	public int[] getTargets() {
+		return targets;
+	}
+
+	@Override
+	public Set<T> getNodes() {
+		return nodeSet;
+	}
+
+	@Override
+	public Set<String> getRelations() {
+		return relations;
+	}
+
+	@Override
+	public T getDummyInitialNode() {
+		return initialId == -1 ? null : nodes.get(initialId);
+	}
+
+	@Override
+	public Set<T> getAdjacentNodes(T node) {
+		return adjacentNodes.get(getId(node));
+	}
+
+	@Override
+	public void add(T node) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * The successors of a node, as a view over the targets array.
+	 */
+	private final class SuccessorSet extends AbstractSet<T> {
+		private final int	start;
+		private final int	end;
+
+		SuccessorSet(int id) {
+			start = offsets[id];
+			end = offsets[id + 1];
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int	next	= start;
+
+				@Override
+				public boolean hasNext() {
+					return next < end;
+				}
+
+				@Override
+				public T next() {
+					if (next >= end) {
+						throw new NoSuchElementException();
+					}
+					return nodes.get(targets[next++]);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			Integer id = ids.get(o);
+			if (id == null) {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				if (targets[i] == id) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+}
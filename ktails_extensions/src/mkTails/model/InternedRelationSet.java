@@ -0,0 +1,94 @@
+package mkTails.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable set of relation strings, interned in a pool so that there is a
+ * single instance per distinct set of relations. Transitions share these
+ * instances rather than owning a set each: almost all of them carry the set
+ * of the time relation alone (Event.defTimeRelationSet). Two interned sets
+ * are equal only if they are the same instance, and their hash codes are
+ * computed once, so comparing and hashing relation sets is cheap.<br />
+ * <br />
+ * Interned sets are equal to, and have the same hash codes as, the other sets
+ * with the same relations, so they can be compared with and looked up by any
+ * set of relations.
+ */
+public final class InternedRelationSet extends AbstractSet<String> {
+
+	private static final ConcurrentHashMap<Set<String>, InternedRelationSet>	pool	= new ConcurrentHashMap<Set<String>, InternedRelationSet>();
+
+	/** The relations, in the iteration order of the set first interned. */
+	private final String[]														relations;
+
+	private final int															hashCode;
+
+	private InternedRelationSet(Set<String> relations) {
+		this.relations = relations.toArray(new String[relations.size()]);
+		this.hashCode = relations.hashCode();
+	}
+
+	/**
+	 * Returns the interned set with the given relations.
+	 */
+	public static InternedRelationSet intern(Set<String> relations) {
+		if (relations instanceof InternedRelationSet) {
+			return (InternedRelationSet) relations;
+		}
+		InternedRelationSet ret = pool.get(relations);
+		if (ret == null) {
+			InternedRelationSet interned = new InternedRelationSet(relations);
+			ret = pool.putIfAbsent(interned, interned);
+			if (ret == null) {
+				ret = interned;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the interned set that holds just the given relation.
+	 */
+	public static InternedRelationSet intern(String relation) {
+		return intern(Collections.singleton(relation));
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		for (String r : relations) {
+			if (r.equals(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		// The iterator of Arrays.asList does not support remove.
+		return Arrays.asList(relations).iterator();
+	}
+
+	@Override
+	public int size() {
+		return relations.length;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof InternedRelationSet) {
+			return this == o;
+		}
+		return super.equals(o);
+	}
+}
@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -21,6 +22,7 @@ import mkTails.model.state.State;
 import mkTails.model.state.SynDaikonizer;
 import mkTails.util.NotImplementedException;
 import mkTails.util.time.ITime;
+import mkTails.util.time.TimeSeries;
 
 /**
  * Implements a partition in a partition graph. Partitions are nodes, but they
@@ -35,9 +37,11 @@ import mkTails.util.time.ITime;
 public class Partition implements INode<Partition> {
 	/**
 	 * All the events this partition contains. A partition is constrained to
-	 * contain EventNodes that have Events of the same EventType.
+	 * contain EventNodes that have Events of the same EventType. The events
+	 * are kept as a set of dense ids (see EventNodeSet), so that merges and
+	 * splits copy and combine whole words of ids.
 	 */
-	protected final Set<EventNode>				events;
+	protected final EventNodeSet				events;
 
 	/**
 	 * Partitions can be initialized (belong to a partition graph) or be
@@ -62,6 +66,27 @@ public class Partition implements INode<Partition> {
 	private final List<Transition<Partition>>	cachedTransitionsWithInvs;
 
 	
+	/**
+	 * The cached outgoing transitions of this partition: for all relations
+	 * (under the null key, see getAllTransitions) and for every set of
+	 * relations that getTransitionsWithExactRelations was called with. Adding
+	 * events to the partition extends the cached transitions with those of
+	 * the new events. Removing events drops the cache.<br />
+	 * <br />
+	 * Read methods fill the cache lazily, so it is only accessed under the
+	 * lock of the partition: concurrent model checks may read the transitions
+	 * of the same partition (e.g., HistoryNode.toCounterexample). The events
+	 * of a partition must not change while other threads read it.
+	 */
+	private final Map<Set<String>, TransitionCache>	transitionCaches	= new HashMap<Set<String>, TransitionCache>();
+
+	/**
+	 * The number of times that events were removed from this partition. Events
+	 * that leave a partition may be the targets of transitions that other
+	 * partitions have cached, so those caches are stale once this changes.
+	 */
+	private int									numRemovals	= 0;
+
 	/**
 	 * Holds the current k that cause this partition
 	 */
@@ -83,7 +108,7 @@ public class Partition implements INode<Partition> {
 	 */
 	public Partition(Set<EventNode> eNodes) {
 		assert eNodes.size() > 0;
-		events = new LinkedHashSet<EventNode>();
+		events = new EventNodeSet();
 		addEventNodes(eNodes);
 		cachedTransitionsWithInvs = new ArrayList<Transition<Partition>>();
 	}
@@ -94,11 +119,29 @@ public class Partition implements INode<Partition> {
 	 * @param eNodes
 	 */
 	public Partition(EventNode eNode) {
-		events = new LinkedHashSet<EventNode>();
+		events = new EventNodeSet();
 		addOneEventNode(eNode);
 		cachedTransitionsWithInvs = new ArrayList<Transition<Partition>>();
 	}
 
+	/**
+	 * Creates a detached partition, which holds a set of event nodes without
+	 * becoming their parent. A detached partition stands for a part of a split
+	 * that has not been committed (see PartitionGraphOverlay): the methods that
+	 * derive transitions from the parents of events do not apply to it.
+	 *
+	 * @param eType
+	 *            the event type of the event nodes
+	 * @param eNodes
+	 */
+	Partition(EventType eType, Set<EventNode> eNodes) {
+		assert eNodes.size() > 0;
+		events = new EventNodeSet(eNodes);
+		this.eType = eType;
+		initialized = true;
+		cachedTransitionsWithInvs = new ArrayList<Transition<Partition>>();
+	}
+
 	public void initialize(EventNode eNode) {
 		eType = eNode.getEType();
 		initialized = true;
@@ -116,13 +159,21 @@ public class Partition implements INode<Partition> {
 			initialize(eNodes.iterator().next());
 		}
 
-		events.addAll(eNodes);
+		List<EventNode> added = transitionCaches.isEmpty() ? null
+				: new ArrayList<EventNode>(eNodes.size());
 		for (final EventNode e : eNodes) {
+			if (added != null && !events.contains(e)) {
+				added.add(e);
+			}
 			e.setParent(this);
 			// A Partition is allowed to contain only EventNode instances of the
 			// same event type.
 			assert eType.equals(e.getEType());
 		}
+		events.addAll(eNodes);
+		if (added != null) {
+			extendTransitionCaches(added);
+		}
 	}
 
 	/**
@@ -138,7 +189,9 @@ public class Partition implements INode<Partition> {
 			assert eType.equals(eNode.getEType());
 		}
 		eNode.setParent(this);
-		events.add(eNode);
+		if (events.add(eNode) && !transitionCaches.isEmpty()) {
+			extendTransitionCaches(Collections.singletonList(eNode));
+		}
 	}
 
 	/**
@@ -158,6 +211,18 @@ public class Partition implements INode<Partition> {
 	public void removeEventNodes(Set<EventNode> eventNodes) {
 		events.removeAll(eventNodes);
 		assert events.size() > 0;
+		eventsRemoved();
+	}
+
+	/**
+	 * Removes a single event node. Used by PartitionGraph.rollback, which may
+	 * empty the partition one event at a time.
+	 * 
+	 * @param eNode
+	 */
+	void removeEventNode(EventNode eNode) {
+		events.remove(eNode);
+		eventsRemoved();
 	}
 
 	/**
@@ -166,6 +231,12 @@ public class Partition implements INode<Partition> {
 	public void removeAllEventNodes() {
 		events.clear();
 		initialized = false;
+		eventsRemoved();
+	}
+
+	private synchronized void eventsRemoved() {
+		numRemovals++;
+		transitionCaches.clear();
 	}
 
 	/**
@@ -298,13 +369,14 @@ public class Partition implements INode<Partition> {
 					"Multi-relational support missing in method getCandidateSplitBasedOnIncoming()");
 		}
 
-		Set<EventNode> eventsReachableFromPrevious = new LinkedHashSet<EventNode>();
+		List<EventNode> targets = new ArrayList<EventNode>();
 		for (EventNode prevEvent : previous.events) {
 			for (ITransition<EventNode> t : prevEvent
 					.getTransitionsWithExactRelations(relations)) {
-				eventsReachableFromPrevious.add(t.getTarget());
+				targets.add(t.getTarget());
 			}
 		}
+		Set<EventNode> eventsReachableFromPrevious = new EventNodeSet(targets);
 
 		// Intersect the set of events that follows events from previous
 		// Partition with events in this partition.
@@ -319,12 +391,7 @@ public class Partition implements INode<Partition> {
 		}
 
 		PartitionSplit candidateSplit = new PartitionSplit(this);
-		for (EventNode m : events) {
-			if (eventsReachableFromPrevious.contains(m)) {
-				// TODO: allow to add a collection instead of iterating.
-				candidateSplit.addEventToSplit(m);
-			}
-		}
+		candidateSplit.getSplitEvents().addAll(eventsReachableFromPrevious);
 		return candidateSplit;
 	}
 
@@ -334,13 +401,51 @@ public class Partition implements INode<Partition> {
 	 * number of observations.
 	 */
 	@Override
-	public List<? extends ITransition<Partition>> getWeightedTransitions() {
+	public synchronized List<? extends ITransition<Partition>> getWeightedTransitions() {
 		assert initialized;
 
-		List<? extends ITransition<Partition>> transitions = getAllTransitions();
+		// The fractions/counts are kept in the transition cache until events
+		// are added to or removed from the partition or the cache goes stale.
+		// They are set on copies of the cached transitions, which are shared
+		// with getAllTransitions.
+		TransitionCache cache = getTransitionCache(null);
+		if (cache.counts == null) {
+			setWeights(cache);
+		}
+		List<Transition<Partition>> transitions = new ArrayList<Transition<Partition>>(
+				cache.byTarget.size());
+		for (Transition<Partition> tx : cache.byTarget.values()) {
+			Transition<Partition> weighted = copyTransition(tx);
+			weighted.setProbability(cache.probabilities.get(tx.getTarget()));
+			weighted.setCount(cache.counts.get(tx.getTarget()));
+			transitions.add(weighted);
+		}
+		return transitions;
+	}
+
+	/**
+	 * Returns a new transition with the same source, target, relations, real
+	 * probability and time deltas as tx.
+	 */
+	private static Transition<Partition> copyTransition(Transition<Partition> tx) {
+		Transition<Partition> copy = new Transition<Partition>(tx.getSource(),
+				tx.getTarget(), tx.getRelation());
+		copy.setRealProbability(tx.getRealProbability());
+		TimeSeries<ITime> series = tx.getLabels().getTimeDeltaSeries();
+		if (series != null) {
+			copy.getDeltaSeries().addAllDeltas(series.getAllDeltas());
+		}
+		return copy;
+	}
 
-		// TODO: Cache whether or not the fractions/counts have already been set
-		// on the transitions.
+	/**
+	 * Computes the fraction and number of the events of this partition that
+	 * take each of the cached transitions, and stores them in the cache.
+	 */
+	private void setWeights(TransitionCache cache) {
+		Collection<Transition<Partition>> transitions = cache.byTarget.values();
+		Map<Partition, Double> probabilities = new HashMap<Partition, Double>();
+		Map<Partition, Integer> counts = new HashMap<Partition, Integer>();
 
 		if (this.isInitial()) {
 			// We handle INITIAL partitions differently because we optimized the
@@ -355,18 +460,23 @@ public class Partition implements INode<Partition> {
 			Set<EventNode> children = this.getEventNodes().iterator().next()
 					.getAllSuccessors();
 
-			int totalChildren = children.size();
+			// Each child starts a trace that stands for child.getMultiplicity()
+			// identical input traces.
+			int totalChildren = 0;
 
 			// Iterate through all children, building up the map of number of
 			// transitions per (child) partition.
 			Map<Partition, Integer> transitionsPerChildPartition = new LinkedHashMap<Partition, Integer>();
 			for (EventNode child : children) {
 				Partition childP = child.getParent();
+				totalChildren += child.getMultiplicity();
 				if (transitionsPerChildPartition.containsKey(childP)) {
 					transitionsPerChildPartition.put(childP,
-							transitionsPerChildPartition.get(childP) + 1);
+							transitionsPerChildPartition.get(childP)
+									+ child.getMultiplicity());
 				} else {
-					transitionsPerChildPartition.put(childP, 1);
+					transitionsPerChildPartition.put(childP,
+							child.getMultiplicity());
 
 				}
 			}
@@ -378,31 +488,63 @@ public class Partition implements INode<Partition> {
 				double probability = (double) numOutgoing
 						/ (double) totalChildren;
 
-				tr.setProbability(probability);
-				tr.setCount(numOutgoing);
+				probabilities.put(tr.getTarget(), probability);
+				counts.put(tr.getTarget(), numOutgoing);
 			}
 
 		} else {
 			// Non-INITIAL partition case.
 
-			int totalAtSource = events.size();
+			// In one pass over the events, count the events that have a
+			// transition to each partition with each relation (see
+			// fulfillsStrong). Each event counts once per partition and
+			// relation, and stands for event.getMultiplicity() events. The
+			// count of a target and relation is kept along with the index of
+			// the last event that was counted for it.
+			Map<Partition, Map<Set<String>, int[]>> outgoingCounts = new HashMap<Partition, Map<Set<String>, int[]>>();
+			int totalAtSource = 0;
+			int eventIndex = 0;
+			for (EventNode event : events) {
+				totalAtSource += event.getMultiplicity();
+				for (ITransition<EventNode> t : event.getAllTransitions()) {
+					Partition childP = t.getTarget().getParent();
+					Map<Set<String>, int[]> byRelation = outgoingCounts
+							.get(childP);
+					if (byRelation == null) {
+						byRelation = new HashMap<Set<String>, int[]>();
+						outgoingCounts.put(childP, byRelation);
+					}
+					int[] countAndLastEvent = byRelation.get(t.getRelation());
+					if (countAndLastEvent == null) {
+						countAndLastEvent = new int[] { 0, -1 };
+						byRelation.put(t.getRelation(), countAndLastEvent);
+					}
+					if (countAndLastEvent[1] != eventIndex) {
+						countAndLastEvent[0] += event.getMultiplicity();
+						countAndLastEvent[1] = eventIndex;
+					}
+				}
+				eventIndex++;
+			}
 			for (ITransition<Partition> tr : transitions) {
 				int numOutgoing = 0;
-				for (final EventNode event : events) {
-					if (fulfillsStrong(event, tr)) {
-						numOutgoing += 1;
-					}
+				Map<Set<String>, int[]> byRelation = outgoingCounts.get(tr
+						.getTarget());
+				if (byRelation != null
+						&& byRelation.containsKey(tr.getRelation())) {
+					numOutgoing = byRelation.get(tr.getRelation())[0];
 				}
 
 				double probability = (double) numOutgoing
 						/ (double) totalAtSource;
 
-				tr.setProbability(probability);
-				tr.setCount(numOutgoing);
+				probabilities.put(tr.getTarget(), probability);
+				counts.put(tr.getTarget(), numOutgoing);
 
 			}
 		}
-		return transitions;
+		cache.probabilities = probabilities;
+		cache.counts = counts;
 	}
 
 	public ITransition<Partition> getTransitionWithExactRelation(Partition p,
@@ -529,38 +671,7 @@ public class Partition implements INode<Partition> {
 
 	@Override
 	public List<? extends ITransition<Partition>> getAllTransitions() {
-		// TODO: implement a transition cache optimization.
-		
-		HashMap<Partition, Transition<Partition>> transitions = new HashMap<Partition, Transition<Partition>>();
-
-		for (EventNode e : events) {
-			for (ITransition<EventNode> tr : e.getAllTransitions()) {
-				Partition childP = tr.getTarget().getParent();
-				Transition<Partition> tx;
-
-				// Create the transition if it doesn't exist, or retrieve it if
-				// it does
-				if (transitions.containsKey(childP)) {
-					tx = transitions.get(childP);
-				} else {
-					tx = new Transition<Partition>(this, childP,
-							tr.getRelation());
-					transitions.put(childP, tx);
-				}
-				tx.setRealProbability(tr.getRealProbability());
-				// TODO: calling updateTransitionDeltas() is a fragile kind of
-				// initialization -- we have to remember to call this method
-				// whenever creating a new ITransition<Partition> instance.
-				// Refactor this into a new kind of Transition constructor? Or a
-				// helper method.
-				updateTransitionDeltas(e, tr.getTarget(), tx);
-			}
-		}
-		
-		// Return final list of transitions
-		List<Transition<Partition>> ret = new ArrayList<Transition<Partition>>(
-				transitions.values());
-		return ret;
+		return getCachedTransitions(null);
 	}
 
 	@Override
@@ -574,37 +685,127 @@ public class Partition implements INode<Partition> {
 		return successors;
 	}
 
-	// TODO: this code is very similar to getAllTransitions(), refactor it.
 	@Override
 	public List<? extends ITransition<Partition>> getTransitionsWithExactRelations(
 			Set<String> relations) {
+		return getCachedTransitions(relations);
+	}
 
-		Map<Partition, Transition<Partition>> transitions = new HashMap<Partition, Transition<Partition>>();
+	/**
+	 * Returns the transitions of this partition with the given relations, or
+	 * with any relations if relations is null. The transitions are cached
+	 * until they become stale (see TransitionCache.isValid), but the returned
+	 * list is new.
+	 */
+	private synchronized List<Transition<Partition>> getCachedTransitions(
+			Set<String> relations) {
+		return new ArrayList<Transition<Partition>>(
+				getTransitionCache(relations).byTarget.values());
+	}
 
-		for (EventNode e : events) {
-			for (ITransition<EventNode> tr : e
-					.getTransitionsWithExactRelations(relations)) {
-				Partition childP = tr.getTarget().getParent();
-				Transition<Partition> tx;
+	/**
+	 * Returns the valid cache of the transitions with the given relations,
+	 * filling it if needed. Must be called under the lock of the partition.
+	 */
+	private TransitionCache getTransitionCache(Set<String> relations) {
+		if (relations != null) {
+			relations = InternedRelationSet.intern(relations);
+		}
+		TransitionCache cache = transitionCaches.get(relations);
+		if (cache == null || !cache.isValid()) {
+			cache = new TransitionCache(relations);
+			cache.addTransitionsOf(this, events);
+			transitionCaches.put(relations, cache);
+		}
+		return cache;
+	}
 
-				// Create the transition if it doesn't exist, or retrieve it if
-				// it does
-				if (transitions.containsKey(childP)) {
-					tx = transitions.get(childP);
-				} else {
-					tx = new Transition<Partition>(this, childP,
-							tr.getRelation());
-					transitions.put(childP, tx);
+	/**
+	 * Adds the transitions of newly added events to the valid caches, and
+	 * drops the stale ones.
+	 */
+	private synchronized void extendTransitionCaches(List<EventNode> added) {
+		Iterator<TransitionCache> iter = transitionCaches.values().iterator();
+		while (iter.hasNext()) {
+			TransitionCache cache = iter.next();
+			if (cache.isValid()) {
+				cache.addTransitionsOf(this, added);
+			} else {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * The outgoing transitions of a partition with a set of relations, by
+	 * target partition. The cache is valid as long as no event has left a
+	 * target partition since the transition to it was created: events only
+	 * reach a different partition by leaving the one they are in.
+	 */
+	private static final class TransitionCache {
+		/** The relations of the transitions, or null for all relations. */
+		private final Set<String>							relations;
+
+		private final Map<Partition, Transition<Partition>>	byTarget		= new HashMap<Partition, Transition<Partition>>();
+
+		/** The numRemovals of each target when the cache was filled. */
+		private final Map<Partition, Integer>				targetRemovals	= new HashMap<Partition, Integer>();
+
+		/**
+		 * The fraction and number of the source events that take the
+		 * transition to each target, as computed by getWeightedTransitions.
+		 * Null until computed, and reset when the transitions are extended.
+		 */
+		private Map<Partition, Double>						probabilities	= null;
+		private Map<Partition, Integer>						counts			= null;
+
+		TransitionCache(Set<String> relations) {
+			this.relations = relations;
+		}
+
+		boolean isValid() {
+			for (Map.Entry<Partition, Integer> e : targetRemovals.entrySet()) {
+				if (e.getKey().numRemovals != e.getValue()) {
+					return false;
 				}
-				tx.setRealProbability(tr.getRealProbability());
-				updateTransitionDeltas(e, tr.getTarget(), tx);
 			}
+			return true;
 		}
 
-		// Return final list of transitions
-		List<Transition<Partition>> ret = new ArrayList<Transition<Partition>>(
-				transitions.values());
-		return ret;
+		/**
+		 * Adds the transitions of a set of events of source to the cache.
+		 */
+		void addTransitionsOf(Partition source, Collection<EventNode> sourceEvents) {
+			probabilities = null;
+			counts = null;
+			for (EventNode e : sourceEvents) {
+				List<? extends ITransition<EventNode>> eTransitions = relations == null ? e
+						.getAllTransitions() : e
+						.getTransitionsWithExactRelations(relations);
+				for (ITransition<EventNode> tr : eTransitions) {
+					Partition childP = tr.getTarget().getParent();
+					Transition<Partition> tx;
+
+					// Create the transition if it doesn't exist, or retrieve it
+					// if it does
+					if (byTarget.containsKey(childP)) {
+						tx = byTarget.get(childP);
+					} else {
+						tx = new Transition<Partition>(source, childP,
+								tr.getRelation());
+						byTarget.put(childP, tx);
+						targetRemovals.put(childP, childP.numRemovals);
+					}
+					tx.setRealProbability(tr.getRealProbability());
+					// TODO: calling updateTransitionDeltas() is a fragile kind
+					// of initialization -- we have to remember to call this
+					// method whenever creating a new ITransition<Partition>
+					// instance. Refactor this into a new kind of Transition
+					// constructor? Or a helper method.
+					updateTransitionDeltas(e, tr.getTarget(), tx);
+				}
+			}
+		}
 	}
 
 	@Override
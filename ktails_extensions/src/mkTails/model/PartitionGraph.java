@@ -1,21 +1,21 @@
 package mkTails.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import mkTails.algorithms.graphops.IOperation;
+import mkTails.algorithms.graphops.PartitionMultiMerge;
 import mkTails.algorithms.graphops.PartitionMultiSplit;
 import mkTails.invariants.TemporalInvariantSet;
 import mkTails.model.event.EventType;
@@ -64,9 +64,70 @@ public class PartitionGraph implements IGraph<Partition> {
 	/** A cache of inter-partition transitions. */
 	private final LinkedHashMap<Partition, Set<Partition>>	transitionCache		= new LinkedHashMap<Partition, Set<Partition>>();
 
+	/**
+	 * The reverse of transitionCache: maps a partition to the partitions whose
+	 * cached successors include it.
+	 */
+	private final Map<Partition, Set<Partition>>			cachedPredecessors	= new HashMap<Partition, Set<Partition>>();
+
+	/**
+	 * The partitions that may have no entry in transitionCache, and whose
+	 * transitions may thus be missing from cachedPredecessors. Null until
+	 * getPredecessors is first called after the cache was cleared.
+	 */
+	private Set<Partition>									uncachedPartitions	= null;
+
+	/**
+	 * While applyAll is running, the partitions whose cache entries, and
+	 * whose cached predecessors' entries, are to be invalidated once the batch
+	 * completes. Null otherwise.
+	 */
+	private Set<Partition>									deferredClears		= null;
+
+	/**
+	 * While applyAll is running, the partitions whose own cache entries are to
+	 * be invalidated once the batch completes. Null otherwise.
+	 */
+	private Set<Partition>									deferredRemovals	= null;
+
 	/** An ordered list of all partition splits applied to the graph so far. */
 	private final LinkedList<PartitionMultiSplit>			appliedSplits		= new LinkedList<PartitionMultiSplit>();
 
+	// /////////////////////////////////////////////////////////////////////////
+	// The undo log of the open checkpoints (see checkpoint).
+
+	private static final int								JOURNAL_MOVE		= 0;
+	private static final int								JOURNAL_ADD			= 1;
+	private static final int								JOURNAL_REMOVE		= 2;
+	private static final int								JOURNAL_CACHE_PUT	= 3;
+	private static final int								JOURNAL_CACHE_REMOVE	= 4;
+	private static final int								JOURNAL_SPLIT		= 5;
+
+	/** The number of open checkpoints. Changes are journaled while > 0. */
+	private int												openCheckpoints		= 0;
+
+	/** Whether a rollback is in progress, which is not journaled. */
+	private boolean											rollingBack			= false;
+
+	/**
+	 * The journal entries, in the order of the changes: the kind of each
+	 * entry, the partition(s) that it concerns, and for moves the index of
+	 * the first moved event in journalEvents. The arrays are reused from one
+	 * checkpoint to the next.
+	 */
+	private int												journalSize			= 0;
+	private int[]											journalKinds		= new int[64];
+	private Partition[]										journalFrom			= new Partition[64];
+	private Partition[]										journalTo			= new Partition[64];
+	private int[]											journalStarts		= new int[64];
+
+	/** The successors of the cache entries removed under a checkpoint. */
+	private Object[]										journalSuccs		= new Object[64];
+
+	/** The events moved under a checkpoint, in the order of the moves. */
+	private EventNode[]										journalEvents		= new EventNode[256];
+	private int												numJournalEvents	= 0;
+
 	/** Initial trace graph. */
 	private ChainsTraceGraph								traceGraph;
 
@@ -114,6 +175,25 @@ public class PartitionGraph implements IGraph<Partition> {
 		partitionByIndexSetsAndLabels(g.getNodes(), partitioningIndexSets);
 	}
 
+	/**
+	 * Constructs a PartitionGraph in which event nodes with identical futures
+	 * share a partition. This is a prefix tree over the reversed traces of
+	 * {@code g}: two event nodes have identical futures if they have the same
+	 * event type and their successors have identical futures. Such nodes are
+	 * k-equivalent for every k, so applying kTails to this graph yields the
+	 * same model as applying it to a graph with one partition per event node,
+	 * but starts from far fewer partitions on repetitive logs.
+	 *
+	 * @param g
+	 *            The initial graph, which must be acyclic
+	 */
+	public static PartitionGraph newIdenticalFuturesPartitionGraph(
+			ChainsTraceGraph g, TemporalInvariantSet invariants) {
+		PartitionGraph pGraph = new PartitionGraph(g, invariants);
+		pGraph.partitionByIdenticalFutures(g.getNodes());
+		return pGraph;
+	}
+
 	/**
 	 * Creates a partition graph without any partitions. Takes care of setting
 	 * up the internal initialEvents, invariants, and traceGraph data
@@ -138,14 +218,227 @@ public class PartitionGraph implements IGraph<Partition> {
 		return message.getParent();
 	}
 
+	/**
+	 * Applies op to the graph. Returns an operation that rewinds op, or null
+	 * if a checkpoint is open, in which case op is undone by rollback.
+	 */
 	public IOperation apply(IOperation op) {
 		if (op.getClass() == PartitionMultiSplit.class) {
 			// if a PartitionSplit, add to cache of splits
 			appliedSplits.push((PartitionMultiSplit) op);
+			if (isJournaling()) {
+				journal(JOURNAL_SPLIT, null, null, null);
+			}
 		}
 		return op.commit(this);
 	}
 
+	/**
+	 * Opens a checkpoint. Until the checkpoint is closed, by rollback or by
+	 * release, the changes to the graph are recorded in an undo log: the
+	 * event nodes that operations move between partitions, the partitions
+	 * that they add and remove, and the changes to the transition cache.
+	 * Operations applied meanwhile do not build the operations that rewind
+	 * them. Checkpoints may be nested.
+	 * 
+	 * @return the checkpoint, to pass to rollback or release
+	 */
+	public int checkpoint() {
+		openCheckpoints++;
+		return journalSize;
+	}
+
+	/**
+	 * Whether a checkpoint is open. Operations that are applied while a
+	 * checkpoint is open return null instead of a rewind operation.
+	 */
+	public boolean hasCheckpoint() {
+		return openCheckpoints > 0;
+	}
+
+	/**
+	 * Undoes the changes made since the checkpoint was opened, and closes it.
+	 * This takes time proportional to the number of moved events and of
+	 * changed cache entries. As with rewind operations, partitions removed
+	 * since the checkpoint are put back at the end of the partition order.
+	 * 
+	 * @param checkpoint
+	 *            a checkpoint returned by checkpoint, which must be the most
+	 *            recently opened one that is still open
+	 */
+	public void rollback(int checkpoint) {
+		assert openCheckpoints > 0 && checkpoint <= journalSize;
+
+		rollingBack = true;
+		try {
+			int end = numJournalEvents;
+			for (int i = journalSize - 1; i >= checkpoint; i--) {
+				Partition from = journalFrom[i];
+				Partition to = journalTo[i];
+				switch (journalKinds[i]) {
+				case JOURNAL_MOVE:
+					int start = journalStarts[i];
+					if (to.size() == end - start) {
+						to.removeAllEventNodes();
+					} else {
+						for (int j = start; j < end; j++) {
+							to.removeEventNode(journalEvents[j]);
+						}
+					}
+					for (int j = start; j < end; j++) {
+						from.addOneEventNode(journalEvents[j]);
+					}
+					end = start;
+					break;
+				case JOURNAL_ADD:
+					partitions.remove(from);
+					break;
+				case JOURNAL_REMOVE:
+					partitions.add(from);
+					break;
+				case JOURNAL_CACHE_PUT:
+					removeCacheEntry(from);
+					break;
+				case JOURNAL_CACHE_REMOVE:
+					@SuppressWarnings("unchecked")
+					Set<Partition> succs = (Set<Partition>) journalSuccs[i];
+					transitionCache.put(from, succs);
+					for (Partition succ : succs) {
+						getCachedPredecessors(succ).add(from);
+					}
+					break;
+				case JOURNAL_SPLIT:
+					appliedSplits.pop();
+					break;
+				default:
+					throw new InternalSynopticException(
+							"Unknown journal entry " + journalKinds[i]);
+				}
+			}
+			numJournalEvents = end;
+			truncateJournal(checkpoint);
+		} finally {
+			rollingBack = false;
+		}
+		closeCheckpoint();
+	}
+
+	/**
+	 * Keeps the changes made since the checkpoint was opened, and closes it.
+	 * The changes can still be undone by rolling back an enclosing
+	 * checkpoint.
+	 * 
+	 * @param checkpoint
+	 *            a checkpoint returned by checkpoint, which must be the most
+	 *            recently opened one that is still open
+	 */
+	public void release(int checkpoint) {
+		assert openCheckpoints > 0 && checkpoint <= journalSize;
+		closeCheckpoint();
+	}
+
+	private void closeCheckpoint() {
+		openCheckpoints--;
+		if (openCheckpoints == 0) {
+			truncateJournal(0);
+			Arrays.fill(journalEvents, 0, numJournalEvents, null);
+			numJournalEvents = 0;
+		}
+	}
+
+	/** Drops the journal entries from index size on. */
+	private void truncateJournal(int size) {
+		Arrays.fill(journalFrom, size, journalSize, null);
+		Arrays.fill(journalTo, size, journalSize, null);
+		Arrays.fill(journalSuccs, size, journalSize, null);
+		journalSize = size;
+	}
+
+	private boolean isJournaling() {
+		return openCheckpoints > 0 && !rollingBack;
+	}
+
+	private void journal(int kind, Partition from, Partition to, Object succs) {
+		if (journalSize == journalKinds.length) {
+			int capacity = 2 * journalSize;
+			journalKinds = Arrays.copyOf(journalKinds, capacity);
+			journalFrom = Arrays.copyOf(journalFrom, capacity);
+			journalTo = Arrays.copyOf(journalTo, capacity);
+			journalStarts = Arrays.copyOf(journalStarts, capacity);
+			journalSuccs = Arrays.copyOf(journalSuccs, capacity);
+		}
+		journalKinds[journalSize] = kind;
+		journalFrom[journalSize] = from;
+		journalTo[journalSize] = to;
+		journalStarts[journalSize] = numJournalEvents;
+		journalSuccs[journalSize] = succs;
+		journalSize++;
+	}
+
+	/**
+	 * Moves a set of event nodes from one partition to another. If events are
+	 * all the events of from, from is left empty (see
+	 * Partition.removeAllEventNodes). Under a checkpoint, the moved events are
+	 * journaled.
+	 * 
+	 * @param from
+	 *            the partition that holds the events
+	 * @param to
+	 *            the partition to move the events to
+	 * @param events
+	 *            the events to move
+	 */
+	public void moveEventNodes(Partition from, Partition to,
+			Set<EventNode> events) {
+		if (isJournaling()) {
+			journal(JOURNAL_MOVE, from, to, null);
+			if (numJournalEvents + events.size() > journalEvents.length) {
+				journalEvents = Arrays.copyOf(journalEvents, Math.max(
+						2 * journalEvents.length, numJournalEvents
+								+ events.size()));
+			}
+			for (EventNode e : events) {
+				journalEvents[numJournalEvents++] = e;
+			}
+		}
+		to.addEventNodes(events);
+		if (events.size() == from.size()) {
+			from.removeAllEventNodes();
+		} else {
+			from.removeEventNodes(events);
+		}
+	}
+
+	/**
+	 * Applies a batch of merges, and returns their rewind operations in the
+	 * same order. Invalidating the transition cache is deferred until all the
+	 * merges are committed, and then touches only the entries of the affected
+	 * partitions and of the partitions that cache them as successors. The
+	 * transition cache must not be read while the batch is applied.
+	 */
+	public List<IOperation> applyAll(Collection<PartitionMultiMerge> merges) {
+		List<IOperation> rewinds = new ArrayList<IOperation>(merges.size());
+		deferredClears = new LinkedHashSet<Partition>();
+		deferredRemovals = new LinkedHashSet<Partition>();
+		try {
+			for (PartitionMultiMerge merge : merges) {
+				rewinds.add(apply(merge));
+			}
+		} finally {
+			Set<Partition> clears = deferredClears;
+			Set<Partition> removals = deferredRemovals;
+			deferredClears = null;
+			deferredRemovals = null;
+			for (Partition node : removals) {
+				removeFromCache(node);
+			}
+			for (Partition node : clears) {
+				clearNodeAdjacentsCache(node);
+			}
+		}
+		return rewinds;
+	}
+
 	/**
 	 * Returns the most recently applied PartitionMultiSplit, null if no splits
 	 * have been made
@@ -169,9 +462,105 @@ public class PartitionGraph implements IGraph<Partition> {
 
 		Set<Partition> adjPartitions = pNode.getAllSuccessors();
 		transitionCache.put(pNode, adjPartitions);
+		if (isJournaling()) {
+			journal(JOURNAL_CACHE_PUT, pNode, null, null);
+		}
+		for (Partition succ : adjPartitions) {
+			getCachedPredecessors(succ).add(pNode);
+		}
 		return adjPartitions;
 	}
 
+	/**
+	 * Fills the transition cache for every partition. Until the graph is next
+	 * modified, getAdjacentNodes then only reads the graph, and may be called
+	 * from several threads at once (e.g., by PartitionGraphOverlay instances
+	 * that are model checked concurrently).
+	 */
+	public void cacheAllAdjacentNodes() {
+		for (Partition p : partitions) {
+			getAdjacentNodes(p);
+		}
+	}
+
+	/**
+	 * Returns an immutable compressed sparse row snapshot of the current
+	 * partitions and their adjacency. The snapshot is not affected by later
+	 * modifications of the graph, and may be read from several threads.
+	 */
+	public GraphSnapshot<Partition> snapshot() {
+		return new GraphSnapshot<Partition>(this);
+	}
+
+	/**
+	 * Returns the partitions that have a transition to node, from the reverse
+	 * index of the transition cache. The partitions whose cache entries were
+	 * invalidated since the last call are cached first, so the cost of a call
+	 * is proportional to the number of invalidated entries rather than to the
+	 * size of the graph. The returned set must not be modified.
+	 */
+	public Set<Partition> getPredecessors(Partition node) {
+		if (uncachedPartitions == null) {
+			uncachedPartitions = new LinkedHashSet<Partition>(partitions);
+		}
+		if (!uncachedPartitions.isEmpty()) {
+			List<Partition> toCache = new ArrayList<Partition>(
+					uncachedPartitions);
+			uncachedPartitions.clear();
+			for (Partition p : toCache) {
+				if (partitions.contains(p)) {
+					getAdjacentNodes(p);
+				}
+			}
+		}
+		Set<Partition> preds = cachedPredecessors.get(node);
+		if (preds == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(preds);
+	}
+
+	private Set<Partition> getCachedPredecessors(Partition node) {
+		Set<Partition> preds = cachedPredecessors.get(node);
+		if (preds == null) {
+			preds = new HashSet<Partition>();
+			cachedPredecessors.put(node, preds);
+		}
+		return preds;
+	}
+
+	/**
+	 * Removes the cache entry of node, and node from the reverse index entries
+	 * of its cached successors.
+	 */
+	private void removeCacheEntry(Partition node) {
+		Set<Partition> succs = transitionCache.remove(node);
+		if (succs == null) {
+			return;
+		}
+		if (uncachedPartitions != null) {
+			uncachedPartitions.add(node);
+		}
+		if (isJournaling()) {
+			journal(JOURNAL_CACHE_REMOVE, node, null, succs);
+		}
+		for (Partition succ : succs) {
+			Set<Partition> preds = cachedPredecessors.get(succ);
+			if (preds != null) {
+				preds.remove(node);
+				if (preds.isEmpty()) {
+					cachedPredecessors.remove(succ);
+				}
+			}
+		}
+	}
+
+	private void clearTransitionCache() {
+		transitionCache.clear();
+		cachedPredecessors.clear();
+		uncachedPartitions = null;
+	}
+
 	/**
 	 * All messages with identical labels are mapped to the same partition.
 	 * 
@@ -197,7 +586,7 @@ public class PartitionGraph implements IGraph<Partition> {
 			partitions.add(new Partition(eNodes));
 		}
 
-		transitionCache.clear();
+		clearTransitionCache();
 	}
 
 	private void partitionByIndexSetsAndLabels(Collection<EventNode> events,
@@ -308,7 +697,88 @@ public class PartitionGraph implements IGraph<Partition> {
 			partitions.add(partition);
 			seenENodes.add(e);
 		}
-		transitionCache.clear();
+		clearTransitionCache();
+	}
+
+	/**
+	 * Event nodes with identical futures are mapped to the same partition. The
+	 * futures are compared bottom-up: each event node is assigned the id of
+	 * the class of its (event type, successor class ids) pair, which is only
+	 * computed once all of its successors have been assigned a class.
+	 *
+	 * @param events
+	 *            Set of messages to map, which must not contain cycles
+	 */
+	private void partitionByIdenticalFutures(Collection<EventNode> events) {
+		Map<List<Object>, Integer> classIds = new HashMap<List<Object>, Integer>();
+		Map<EventNode, Integer> eventClass = new HashMap<EventNode, Integer>();
+		Set<EventNode> expanded = new HashSet<EventNode>();
+		LinkedList<EventNode> stack = new LinkedList<EventNode>();
+
+		for (EventNode root : events) {
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				EventNode e = stack.peek();
+				if (eventClass.containsKey(e)) {
+					stack.pop();
+					continue;
+				}
+
+				// Visit the successors of e before e itself.
+				if (expanded.add(e)) {
+					for (EventNode succ : e.getAllSuccessors()) {
+						if (!eventClass.containsKey(succ)) {
+							stack.push(succ);
+						}
+					}
+					continue;
+				}
+				stack.pop();
+
+				List<Integer> succClasses = new ArrayList<Integer>();
+				for (EventNode succ : e.getAllSuccessors()) {
+					Integer succClass = eventClass.get(succ);
+					if (succClass == null) {
+						throw new InternalSynopticException(
+								"Cannot partition a cyclic graph by futures.");
+					}
+					if (!succClasses.contains(succClass)) {
+						succClasses.add(succClass);
+					}
+				}
+				Collections.sort(succClasses);
+
+				List<Object> key = new ArrayList<Object>(
+						succClasses.size() + 1);
+				key.add(e.getEType());
+				key.addAll(succClasses);
+				Integer classId = classIds.get(key);
+				if (classId == null) {
+					classId = classIds.size();
+					classIds.put(key, classId);
+				}
+				eventClass.put(e, classId);
+			}
+		}
+
+		// Create the partitions in the order in which their first event node
+		// appears in events.
+		Map<Integer, Set<EventNode>> prepartitions = new LinkedHashMap<Integer, Set<EventNode>>();
+		for (EventNode e : events) {
+			Integer classId = eventClass.get(e);
+			Set<EventNode> eNodes = prepartitions.get(classId);
+			if (eNodes == null) {
+				eNodes = new LinkedHashSet<EventNode>();
+				prepartitions.put(classId, eNodes);
+			}
+			eNodes.add(e);
+		}
+
+		partitions = new LinkedHashSet<Partition>();
+		for (Set<EventNode> eNodes : prepartitions.values()) {
+			partitions.add(new Partition(eNodes));
+		}
+		clearTransitionCache();
 	}
 
 	@Override
@@ -366,41 +836,47 @@ public class PartitionGraph implements IGraph<Partition> {
 		for (EventNode m : node.getEventNodes()) {
 			relations.addAll(m.getNodeRelations());
 		}
-		partitions.add(node);
+		if (partitions.add(node) && isJournaling()) {
+			journal(JOURNAL_ADD, node, null, null);
+		}
+		if (uncachedPartitions != null) {
+			uncachedPartitions.add(node);
+		}
 
 		clearNodeAdjacentsCache(node);
 	}
 
-	public void mergeAdjacentsCache(Partition from, Partition to) {
-		for (Iterator<Entry<Partition, Set<Partition>>> pIter = transitionCache
-				.entrySet().iterator(); pIter.hasNext();) {
-			Set<Partition> parts = pIter.next().getValue();
-			if (parts.contains(from)) {
-				parts.remove(from);
-				parts.add(to);
-			}
-		}
-	}
-
+	/**
+	 * Invalidates the cache entry of node and the entries that contain node.
+	 * Through the reverse index this takes time proportional to the number of
+	 * affected entries, not to the size of the cache.
+	 */
 	public void clearNodeAdjacentsCache(Partition node) {
-		transitionCache.remove(node);
-		// System.out.println("Cache size: " + transitionCache.size());
-		for (Iterator<Entry<Partition, Set<Partition>>> pIter = transitionCache
-				.entrySet().iterator(); pIter.hasNext();) {
-			if (pIter.next().getValue().contains(node)) {
-				// System.out.println("cache rm");
-				pIter.remove();
+		if (deferredClears != null) {
+			deferredClears.add(node);
+			return;
+		}
+		removeCacheEntry(node);
+		Set<Partition> preds = cachedPredecessors.remove(node);
+		if (preds != null) {
+			for (Partition pred : preds) {
+				removeCacheEntry(pred);
 			}
 		}
-		// System.out.println("Cache' size: " + transitionCache.size());
 	}
 
 	public void removeFromCache(Partition node) {
-		transitionCache.remove(node);
+		if (deferredRemovals != null) {
+			deferredRemovals.add(node);
+			return;
+		}
+		removeCacheEntry(node);
 	}
 
 	public void removePartition(Partition node) {
-		partitions.remove(node);
+		if (partitions.remove(node) && isJournaling()) {
+			journal(JOURNAL_REMOVE, node, null, null);
+		}
 	}
 
 	/**
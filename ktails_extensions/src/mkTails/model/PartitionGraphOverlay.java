@@ -0,0 +1,208 @@
+package mkTails.model;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import mkTails.algorithms.graphops.PartitionMultiSplit;
+import mkTails.model.interfaces.IGraph;
+
+/**
+ * A copy-on-write view of a partition graph in which a split has been applied
+ * without modifying the graph. The split partition is replaced in the view by
+ * one detached partition per set of the split (see the Partition constructor
+ * for detached partitions), and only the adjacency of the new partitions and
+ * of the predecessors of the split partition is computed by the overlay --
+ * everything else is read from the underlying graph.<br />
+ * <br />
+ * An overlay only reads the underlying graph, so several overlays of the same
+ * graph may be model checked concurrently, on condition that the transition
+ * cache of the graph is filled (see PartitionGraph.cacheAllAdjacentNodes) and
+ * that the graph is not modified in the meantime. A single overlay is not
+ * thread-safe. Since the new partitions are detached, the overlay supports
+ * the checks that depend only on the adjacency and event types of its
+ * partitions, such as those of unconstrained invariants.
+ */
+public class PartitionGraphOverlay implements IGraph<Partition> {
+	private final PartitionGraph				base;
+
+	private final PartitionMultiSplit			split;
+
+	/** The partition that is split in this overlay. */
+	private final Partition						splitPartition;
+
+	/** The detached partitions that replace splitPartition. */
+	private final List<Partition>				newPartitions;
+
+	/** Maps every event of splitPartition to its new partition. */
+	private final Map<EventNode, Partition>		newParentOf;
+
+	/**
+	 * The adjacency of the partitions whose successors differ from those in
+	 * the underlying graph, filled in lazily.
+	 */
+	private final Map<Partition, Set<Partition>>	adjacency	= new HashMap<Partition, Set<Partition>>();
+
+	private final Set<Partition>				nodes;
+
+	/**
+	 * Creates an overlay of base in which split is applied.
+	 *
+	 * @param base
+	 *            the underlying graph, which split applies to
+	 * @param split
+	 *            the split to apply in the overlay
+	 */
+	public PartitionGraphOverlay(PartitionGraph base, PartitionMultiSplit split) {
+		this.base = base;
+		this.split = split;
+		this.splitPartition = split.getPartition();
+		this.newPartitions = new ArrayList<Partition>();
+		this.newParentOf = new HashMap<EventNode, Partition>();
+		for (Set<EventNode> events : split.getPartitioning()) {
+			Partition newPartition = new Partition(splitPartition.getEType(),
+					events);
+			newPartitions.add(newPartition);
+			for (EventNode e : events) {
+				newParentOf.put(e, newPartition);
+			}
+		}
+		this.nodes = new OverlayNodes();
+	}
+
+	/**
+	 * Returns the split that is applied in this overlay.
+	 */
+	public PartitionMultiSplit getSplit() {
+		return split;
+	}
+
+	/**
+	 * Returns the partition of e in this overlay.
+	 */
+	private Partition getParent(EventNode e) {
+		Partition parent = e.getParent();
+		if (parent == splitPartition) {
+			return newParentOf.get(e);
+		}
+		return parent;
+	}
+
+	@Override
+	public Set<Partition> getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public Set<String> getRelations() {
+		return base.getRelations();
+	}
+
+	@Override
+	public Partition getDummyInitialNode() {
+		Partition initial = base.getDummyInitialNode();
+		if (initial == splitPartition) {
+			return newParentOf.get(initial.getEventNodes().iterator().next());
+		}
+		return initial;
+	}
+
+	@Override
+	public Set<Partition> getAdjacentNodes(Partition node) {
+		if (node == splitPartition) {
+			throw new IllegalArgumentException(
+					"The split partition is not a node of the overlay.");
+		}
+		Set<Partition> adjacent = adjacency.get(node);
+		if (adjacent != null) {
+			return adjacent;
+		}
+
+		// The successors of the other partitions differ from those in base
+		// only if they include the split partition.
+		if (!newPartitions.contains(node)) {
+			Set<Partition> baseAdjacent = base.getAdjacentNodes(node);
+			if (!baseAdjacent.contains(splitPartition)) {
+				return baseAdjacent;
+			}
+		}
+
+		adjacent = new LinkedHashSet<Partition>();
+		for (EventNode e : node.getEventNodes()) {
+			for (EventNode eSucc : e.getAllSuccessors()) {
+				adjacent.add(getParent(eSucc));
+			}
+		}
+		adjacency.put(node, adjacent);
+		return adjacent;
+	}
+
+	@Override
+	public void add(Partition node) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * The partitions of the underlying graph, with the split partition
+	 * replaced by the new partitions.
+	 */
+	private class OverlayNodes extends AbstractSet<Partition> {
+		@Override
+		public Iterator<Partition> iterator() {
+			final Iterator<Partition> baseIter = base.getNodes().iterator();
+			final Iterator<Partition> newIter = newPartitions.iterator();
+			return new Iterator<Partition>() {
+				private Partition	next	= advance();
+
+				private Partition advance() {
+					while (baseIter.hasNext()) {
+						Partition p = baseIter.next();
+						if (p != splitPartition) {
+							return p;
+						}
+					}
+					return newIter.hasNext() ? newIter.next() : null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public Partition next() {
+					if (next == null) {
+						throw new NoSuchElementException();
+					}
+					Partition p = next;
+					next = advance();
+					return p;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (o == splitPartition) {
+				return false;
+			}
+			return newPartitions.contains(o) || base.getNodes().contains(o);
+		}
+
+		@Override
+		public int size() {
+			return base.getNodes().size() - 1 + newPartitions.size();
+		}
+	}
+}
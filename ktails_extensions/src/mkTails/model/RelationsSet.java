@@ -29,6 +29,10 @@ public class RelationsSet implements Comparable<RelationsSet> {
 	static public int compareMultipleRelations(Set<String> r1, Set<String> r2) {
 		// If both the sources and the targets are equal then we use the
 		// relations for possible disambiguation.
+		if (r1 == r2) {
+			// The relations of transitions are interned.
+			return 0;
+		}
 		int cmpRelationsLen = ((Integer) (r1.size())).compareTo(r2.size());
 
 		// Compare relation set lengths.
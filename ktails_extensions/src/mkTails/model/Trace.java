@@ -21,10 +21,21 @@ public class Trace {
 	/** Relations -> First non-INITIAL node for each relation in this trace */
 	private Map<String, EventNode>	relationToInitialNodes;
 
+	/** The number of identical input traces that this trace stands for */
+	private int						multiplicity	= 1;
+
 	public Trace() {
 		this.relationToInitialNodes = new HashMap<String, EventNode>();
 	}
 
+	public void setMultiplicity(int multiplicity) {
+		this.multiplicity = multiplicity;
+	}
+
+	public int getMultiplicity() {
+		return multiplicity;
+	}
+
 	public void addInitialNode(String relation, EventNode eNode) {
 		if (relationToInitialNodes.containsKey(relation)) {
 			throw new IllegalArgumentException(
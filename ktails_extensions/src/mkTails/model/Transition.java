@@ -1,7 +1,6 @@
 package mkTails.model;
 
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 import mkTails.model.interfaces.INode;
@@ -32,6 +31,8 @@ public class Transition<NodeType extends INode<NodeType>> implements
 	// TODO: currently, we are using this field to represent multiple relations,
 	// but eventually we will refactor this away and instead use the
 	// RelationsSet maintained by labels[RELATIONS_LABEL].
+	// The set is interned (see InternedRelationSet), so it is shared with the
+	// other transitions that have the same relations.
 	protected Set<String>	relations;
 
 	private Transition(NodeType source, NodeType target) {
@@ -67,7 +68,7 @@ public class Transition<NodeType extends INode<NodeType>> implements
 	public Transition(NodeType source, NodeType target, Set<String> relations) {
 		this(source, target);
 		assert relations != null;
-		this.relations = relations;
+		this.relations = InternedRelationSet.intern(relations);
 	}
 
 	/**
@@ -82,8 +83,7 @@ public class Transition<NodeType extends INode<NodeType>> implements
 	 */
 	public Transition(NodeType source, NodeType target, String relation) {
 		this(source, target);
-		this.relations = new LinkedHashSet<String>();
-		this.relations.add(relation);
+		this.relations = InternedRelationSet.intern(relation);
 	}
 
 	// //////////////////////////////////////////////////////////////////////
@@ -250,7 +250,8 @@ public class Transition<NodeType extends INode<NodeType>> implements
 			if (other.relations != null) {
 				return false;
 			}
-		} else if (!relations.equals(other.relations)) {
+		} else if (relations != other.relations) {
+			// Relation sets are interned.
 			return false;
 		}
 		if (source == null) {
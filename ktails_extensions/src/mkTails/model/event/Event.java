@@ -1,8 +1,8 @@
 package mkTails.model.event;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
+import mkTails.model.InternedRelationSet;
 import mkTails.util.time.ITime;
 
 /**
@@ -17,13 +17,12 @@ import mkTails.util.time.ITime;
 public class Event {
     /** The default relation used throughout the code. */
     public final static String defTimeRelationStr = "t";
-    /** A set that contains just the defTimeRelationStr (initialized below). */
-    public final static Set<String> defTimeRelationSet;
-
-    static {
-        defTimeRelationSet = new LinkedHashSet<String>();
-        defTimeRelationSet.add(defTimeRelationStr);
-    }
+    /**
+     * A set that contains just the defTimeRelationStr. It is the interned set
+     * that the transitions of the time relation share, and is immutable.
+     */
+    public final static Set<String> defTimeRelationSet = InternedRelationSet
+            .intern(defTimeRelationStr);
 
     /**
      * The event's label.
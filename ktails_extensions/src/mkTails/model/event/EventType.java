@@ -33,6 +33,13 @@ public abstract class EventType implements Comparable<EventType> {
 
     protected static AtomicLong idGen = new AtomicLong();
     protected long id;
+
+    /**
+     * The dense id of this event type in denseIdDictionary -- see
+     * getDenseId().
+     */
+    private int denseId = -1;
+    private volatile EventTypeDictionary denseIdDictionary = null;
     /**
      * Instantiates a new EventType that can be an INITIAL, a TERMINAL, or
      * neither. It cannot be both an INITIAL and a TERMINAL.
@@ -106,4 +113,18 @@ public abstract class EventType implements Comparable<EventType> {
 	public long getId() {
 		return id;
 	}
+
+    /**
+     * Returns the dense id of this event type in the EventTypeDictionary of
+     * the current run. Equal event types have the same dense id. The id is
+     * cached, so this only consults the dictionary once per run.
+     */
+    public int getDenseId() {
+        EventTypeDictionary dictionary = EventTypeDictionary.getInstance();
+        if (denseIdDictionary != dictionary) {
+            denseId = dictionary.getId(this);
+            denseIdDictionary = dictionary;
+        }
+        return denseId;
+    }
 }
@@ -0,0 +1,65 @@
+package mkTails.model.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense int ids -- 0, 1, 2, ... in order of first appearance -- to the
+ * distinct (as in equals) event types of a run. Structures keyed by event types
+ * can use these ids to index arrays and bitsets instead of hashing the event
+ * types. There is one dictionary per run, which is replaced by reset(); use
+ * EventType.getDenseId() rather than holding on to a dictionary.
+ */
+public class EventTypeDictionary {
+
+    private static volatile EventTypeDictionary instance = new EventTypeDictionary();
+
+    private final Map<EventType, Integer> ids = new HashMap<EventType, Integer>();
+
+    private final List<EventType> eTypes = new ArrayList<EventType>();
+
+    /**
+     * Returns the dictionary of the current run.
+     */
+    public static EventTypeDictionary getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts a new dictionary for a new run. Event types look up their ids in
+     * the new dictionary the next time they are asked for them.
+     */
+    public static void reset() {
+        instance = new EventTypeDictionary();
+    }
+
+    /**
+     * Returns the id of eType, assigning the next id to it if no equal event
+     * type has one yet.
+     */
+    public synchronized int getId(EventType eType) {
+        Integer id = ids.get(eType);
+        if (id == null) {
+            id = eTypes.size();
+            ids.put(eType, id);
+            eTypes.add(eType);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the first event type that received the given id.
+     */
+    public synchronized EventType getEventType(int id) {
+        return eTypes.get(id);
+    }
+
+    /**
+     * Returns the number of ids assigned so far, which bounds all ids.
+     */
+    public synchronized int size() {
+        return eTypes.size();
+    }
+}
@@ -2,18 +2,22 @@ package mkTails.tests;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.Assert;
 import mkTails.invariants.ITemporalInvariant;
 import mkTails.invariants.InterruptedByInvariant;
 import mkTails.invariants.TemporalInvariantSet;
+import mkTails.invariants.miners.ChainWalkingTOInvMiner;
 import mkTails.invariants.miners.ITOInvariantMiner;
 import mkTails.main.parser.ParseException;
 import mkTails.main.parser.TraceParser;
 import mkTails.model.ChainsTraceGraph;
 import mkTails.model.DAGsTraceGraph;
 import mkTails.model.EventNode;
+import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 import mkTails.model.TraceGraph;
 import mkTails.model.event.DistEventType;
@@ -39,6 +43,17 @@ public abstract class SynopticTest extends SynopticLibTest {
 															+ "test-output"
 															+ File.separator;
 
+	/**
+	 * A log of five short traces of open, read and close events, in the format
+	 * of the default parser.
+	 */
+	protected static final String[]	openReadCloseLog	= new String[] {
+			"open", "read", "close", "--", "open", "read", "read", "close",
+			"--", "open", "read", "read", "close", "open", "read", "read",
+			"close", "open", "read", "close", "--", "open", "read", "read",
+			"close", "--", "open", "read", "read", "close", "open", "read",
+			"read", "open", "read", "read"		};
+
 	static {
 		// Set up static SynopticLib state.
 		SynopticLibTest.initialize("SynopticTest Logger");
@@ -241,6 +256,42 @@ public abstract class SynopticTest extends SynopticLibTest {
 				inputGraph, multipleRelations, false));
 	}
 
+	/**
+	 * Generates the initial linear graph of a log of events with the default
+	 * parser, and returns its partition graph. The invariants of the partition
+	 * graph (see PartitionGraph.getInvariants()) are those that
+	 * ChainWalkingTOInvMiner mines from the linear graph.
+	 * 
+	 * @param events
+	 *            log of events, each one in the format: (?<TYPE>)
+	 * @param partitionByLabels
+	 *            whether the events with the same label start out in one
+	 *            partition, rather than every event in a partition of its own
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	public PartitionGraph genMinedPartitionGraph(String[] events,
+			boolean partitionByLabels) throws ParseException,
+			InternalSynopticException {
+		ChainsTraceGraph inputGraph = genInitialLinearGraph(events);
+		return new PartitionGraph(inputGraph, partitionByLabels,
+				new ChainWalkingTOInvMiner().computeInvariants(inputGraph,
+						false, false));
+	}
+
+	/**
+	 * Returns the identifiers, made of event type label and line number, of
+	 * the events of a partition, so that partitions of separately parsed
+	 * copies of the same log can be compared.
+	 */
+	public static Set<String> getEventIds(Partition p) {
+		Set<String> ids = new HashSet<String>();
+		for (EventNode e : p.getEventNodes()) {
+			ids.add(e.getEType().getETypeLabel() + ":" + e.getLineNum());
+		}
+		return ids;
+	}
+
 	/**
 	 * Given an array of strings, create a list of corresponding LogEvent
 	 * instances.
@@ -0,0 +1,100 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import mkTails.algorithms.Bisimulation;
+import mkTails.algorithms.graphops.IOperation;
+import mkTails.algorithms.graphops.PartitionMerge;
+import mkTails.invariants.CExamplePath;
+import mkTails.invariants.TemporalInvariantSet;
+import mkTails.invariants.constraints.TempConstrainedInvariant;
+import mkTails.invariants.miners.ChainWalkingTOInvMiner;
+import mkTails.invariants.miners.ConstrainedInvMiner;
+import mkTails.main.parser.ParseException;
+import mkTails.model.ChainsTraceGraph;
+import mkTails.model.Partition;
+import mkTails.model.PartitionGraph;
+import mkTails.tests.SynopticTest;
+import mkTails.util.InternalSynopticException;
+
+/**
+ * Tests the refinement and coarsening algorithms in
+ * mkTails.algorithms.Bisimulation.
+ */
+public class BisimulationTests extends SynopticTest {
+
+	/**
+	 * Tests that a round of splits for constrained invariants performs the
+	 * splits that satisfy the invariants, and not a single arbitrary split. In
+	 * the log, the times from a to b and from c to d exceed their bounds only
+	 * on paths that stitch the two traces together at x and at y, so both x
+	 * and y are split.
+	 */
+	@Test
+	public void constrainedSplitsRecordedTest() throws Exception {
+		setUpPerfume();
+		String[] log = new String[] { "a 0", "x 1", "b 10", "c 11", "y 12",
+				"d 20", "--", "a 0", "x 9", "b 10", "c 11", "y 19", "d 20" };
+		ChainsTraceGraph inputGraph = (ChainsTraceGraph) genChainsTraceGraph(
+				log, genITimeParser());
+		TemporalInvariantSet invariants = new ConstrainedInvMiner()
+				.computeInvariants(new ChainWalkingTOInvMiner(), inputGraph,
+						false);
+		PartitionGraph pGraph = new PartitionGraph(inputGraph, true,
+				invariants);
+
+		List<CExamplePath<Partition>> counterExamples = invariants
+				.getAllCounterExamples(pGraph);
+		for (CExamplePath<Partition> cExample : counterExamples) {
+			assertTrue(cExample.invariant instanceof TempConstrainedInvariant<?>);
+		}
+		assertEquals(1, Bisimulation.performSplits(0, pGraph, counterExamples));
+
+		Map<String, Integer> numPartitions = new HashMap<String, Integer>();
+		for (Partition p : pGraph.getNodes()) {
+			String label = p.getEType().getETypeLabel();
+			Integer num = numPartitions.get(label);
+			numPartitions.put(label, num == null ? 1 : num + 1);
+		}
+		assertEquals(Integer.valueOf(2), numPartitions.get("x"));
+		assertEquals(Integer.valueOf(2), numPartitions.get("y"));
+
+		Bisimulation.splitUntilAllInvsSatisfied(pGraph);
+		assertTrue(invariants.getAllCounterExamples(pGraph) == null);
+	}
+
+	/**
+	 * Tests that coarsening keeps the invariants satisfied, and leaves no pair
+	 * of partitions with the same event type that could still be merged.
+	 */
+	@Test
+	public void invariantPreservingCoarseningTest()
+			throws InternalSynopticException, ParseException {
+		PartitionGraph pGraph = genMinedPartitionGraph(openReadCloseLog,
+				false);
+		TemporalInvariantSet invariants = pGraph.getInvariants();
+		Bisimulation.mergePartitions(pGraph);
+		assertTrue(invariants.getFirstCounterExample(pGraph) == null);
+
+		List<Partition> partitions = new ArrayList<Partition>(
+				pGraph.getNodes());
+		for (Partition p : partitions) {
+			for (Partition q : partitions) {
+				if (p == q || !p.getEType().equals(q.getEType())) {
+					continue;
+				}
+				IOperation rewind = pGraph.apply(new PartitionMerge(p, q));
+				assertTrue(invariants.getFirstCounterExample(pGraph) != null);
+				pGraph.apply(rewind);
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mkTails.model.EventNode;
+import mkTails.model.EventNodeDictionary;
+import mkTails.model.EventNodeSet;
+import mkTails.model.event.Event;
+import mkTails.tests.SynopticTest;
+
+/**
+ * Tests the sets of event nodes in mkTails.model.EventNodeSet.
+ */
+public class EventNodeSetTests extends SynopticTest {
+
+	/**
+	 * Tests that event node sets, in both their sorted array and their bitmap
+	 * representations, behave like hash sets under single and bulk updates.
+	 */
+	@Test
+	public void eventNodeSetTest() {
+		List<EventNode> eNodes = new ArrayList<EventNode>();
+		for (int i = 0; i < 2000; i++) {
+			eNodes.add(new EventNode(new Event("label" + (i % 3))));
+		}
+		Random random = new Random(0);
+		Set<EventNode> expected = new HashSet<EventNode>();
+		EventNodeSet actual = new EventNodeSet();
+		for (int round = 0; round < 300; round++) {
+			// Sparse or dense samples of a random range of the event nodes.
+			int from = random.nextInt(eNodes.size());
+			int to = from + random.nextInt(eNodes.size() - from) + 1;
+			int step = random.nextBoolean() ? 1 : 1 + random.nextInt(200);
+			List<EventNode> sample = new ArrayList<EventNode>();
+			for (int i = from; i < to; i += step) {
+				sample.add(eNodes.get(i));
+			}
+			Set<EventNode> other = random.nextBoolean() ? new EventNodeSet(
+					sample) : new HashSet<EventNode>(sample);
+
+			switch (random.nextInt(5)) {
+			case 0:
+				assertEquals(expected.addAll(other), actual.addAll(other));
+				break;
+			case 1:
+				assertEquals(expected.removeAll(other),
+						actual.removeAll(other));
+				break;
+			case 2:
+				assertEquals(expected.retainAll(other),
+						actual.retainAll(other));
+				break;
+			case 3:
+				for (EventNode e : sample) {
+					assertEquals(expected.add(e), actual.add(e));
+				}
+				break;
+			default:
+				for (EventNode e : sample) {
+					assertEquals(expected.remove(e), actual.remove(e));
+				}
+			}
+
+			assertEquals(expected.size(), actual.size());
+			assertEquals(expected, actual);
+			assertEquals(expected, new HashSet<EventNode>(actual));
+			int lastId = -1;
+			for (EventNode e : actual) {
+				assertTrue(e.getDenseId() > lastId);
+				lastId = e.getDenseId();
+			}
+		}
+
+		for (Iterator<EventNode> iter = actual.iterator(); iter.hasNext();) {
+			if (iter.next().getDenseId() % 2 == 0) {
+				iter.remove();
+			}
+		}
+		for (EventNode e : eNodes) {
+			assertEquals(expected.contains(e) && e.getDenseId() % 2 != 0,
+					actual.contains(e));
+		}
+
+		// Queries with event nodes that have no ids do not give them ids.
+		EventNode unregistered = new EventNode(new Event("label0"));
+		int numIds = EventNodeDictionary.getInstance().size();
+		assertFalse(actual.contains(unregistered));
+		assertFalse(actual.remove(unregistered));
+		assertFalse(actual.removeAll(Collections.singleton(unregistered)));
+		assertEquals(numIds, EventNodeDictionary.getInstance().size());
+		assertEquals(!actual.isEmpty(),
+				actual.retainAll(Collections.singleton(unregistered)));
+		assertTrue(actual.isEmpty());
+		assertFalse(actual.contains(unregistered));
+		assertEquals(numIds, EventNodeDictionary.getInstance().size());
+	}
+
+	/**
+	 * Tests that a bitmap set goes back to a sorted array when single adds
+	 * and removes leave it with fewer event nodes than 64-bit words, so that
+	 * its size follows the number of event nodes and not the span of their
+	 * ids.
+	 */
+	@Test
+	public void sparseAddTest() throws Exception {
+		List<EventNode> eNodes = new ArrayList<EventNode>();
+		for (int i = 0; i < 20000; i++) {
+			EventNode e = new EventNode(new Event("label"));
+			e.getDenseId();
+			eNodes.add(e);
+		}
+		EventNodeSet set = new EventNodeSet();
+		for (int i = 0; i < 256; i++) {
+			set.add(eNodes.get(i));
+		}
+		assertNotNull(getWords(set));
+
+		EventNode far = eNodes.get(eNodes.size() - 1);
+		assertTrue(set.add(far));
+		assertNull(getWords(set));
+		assertEquals(257, set.size());
+		assertTrue(set.contains(far));
+		assertTrue(set.contains(eNodes.get(0)));
+		assertFalse(set.contains(eNodes.get(256)));
+
+		// Removing all but the ends of a dense range also drops the bitmap.
+		set.remove(far);
+		assertNotNull(getWords(set));
+		for (int i = 1; i < 255; i++) {
+			assertTrue(set.remove(eNodes.get(i)));
+		}
+		assertNull(getWords(set));
+		assertEquals(2, set.size());
+		for (int i = 0; i < 257; i++) {
+			assertEquals(i == 0 || i == 255, set.contains(eNodes.get(i)));
+		}
+	}
+
+	private static long[] getWords(EventNodeSet set) throws Exception {
+		Field words = EventNodeSet.class.getDeclaredField("words");
+		words.setAccessible(true);
+		return (long[]) words.get(set);
+	}
+}
@@ -0,0 +1,33 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import mkTails.model.event.EventType;
+import mkTails.model.event.EventTypeDictionary;
+import mkTails.model.event.StringEventType;
+import mkTails.tests.SynopticTest;
+
+/**
+ * Tests the dense event type ids in mkTails.model.event.EventTypeDictionary.
+ */
+public class EventTypeDictionaryTests extends SynopticTest {
+
+	/**
+	 * Tests that equal event types, and only those, share a dense id.
+	 */
+	@Test
+	public void denseEventTypeIdsTest() {
+		EventType a1 = new StringEventType("a");
+		EventType a2 = new StringEventType("a");
+		EventType b = new StringEventType("b");
+		assertEquals(a1.getDenseId(), a2.getDenseId());
+		assertFalse(a1.getDenseId() == b.getDenseId());
+		assertEquals(a1, EventTypeDictionary.getInstance().getEventType(
+				a2.getDenseId()));
+		assertFalse(StringEventType.newInitialStringEventType().getDenseId() == StringEventType
+				.newTerminalStringEventType().getDenseId());
+	}
+}
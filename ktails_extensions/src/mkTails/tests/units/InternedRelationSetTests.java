@@ -0,0 +1,52 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mkTails.model.EventNode;
+import mkTails.model.InternedRelationSet;
+import mkTails.model.event.Event;
+import mkTails.tests.SynopticTest;
+
+/**
+ * Tests the interned sets of relations in mkTails.model.InternedRelationSet.
+ */
+public class InternedRelationSetTests extends SynopticTest {
+
+	/**
+	 * Tests that transitions share interned relation sets, which compare like
+	 * the sets of relations they were interned from.
+	 */
+	@Test
+	public void internedRelationSetTest() {
+		Set<String> relations = new LinkedHashSet<String>();
+		relations.add("t");
+		relations.add("r");
+		Set<String> interned = InternedRelationSet.intern(relations);
+		assertTrue(interned == InternedRelationSet.intern(
+				new HashSet<String>(Arrays.asList("r", "t"))));
+		assertEquals(relations, interned);
+		assertEquals(interned, relations);
+		assertEquals(relations.hashCode(), interned.hashCode());
+		assertFalse(interned.equals(Event.defTimeRelationSet));
+
+		EventNode a = new EventNode(new Event("a"));
+		EventNode b = new EventNode(new Event("b"));
+		a.addTransition(b, Event.defTimeRelationStr);
+		a.addTransition(b, relations);
+		assertTrue(a.getAllTransitions().get(0).getRelation() == Event.defTimeRelationSet);
+		assertEquals(1, a.getTransitionsWithExactRelations(relations).size());
+		assertEquals(1,
+				a.getTransitionsWithExactRelations(Collections.singleton("t"))
+						.size());
+	}
+}
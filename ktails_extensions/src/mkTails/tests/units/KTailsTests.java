@@ -1,22 +1,30 @@
 package mkTails.tests.units;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.ObjIntConsumer;
 
 import org.junit.Test;
 
 import mkTails.algorithms.KTails;
+import mkTails.main.AbstractMain;
+import mkTails.main.options.AbstractOptions;
 import mkTails.main.parser.ParseException;
 import mkTails.main.parser.TraceParser;
 import mkTails.model.ChainsTraceGraph;
 import mkTails.model.DAGsTraceGraph;
 import mkTails.model.EventNode;
+import mkTails.model.Partition;
 import mkTails.model.PartitionGraph;
 import mkTails.model.Transition;
 import mkTails.model.event.Event;
@@ -30,6 +38,25 @@ import mkTails.util.InternalSynopticException;
  */
 public class KTailsTests extends SynopticTest {
 
+	/**
+	 * A log of traces that branch and loop over more event types than
+	 * openReadCloseLog.
+	 */
+	private static final String[]	branchingLog		= new String[] {
+			"login", "browse", "browse", "buy", "logout", "--", "login",
+			"search", "browse", "buy", "logout", "--", "login", "browse",
+			"search", "logout", "--", "login", "search", "search", "browse",
+			"logout", "--", "login", "logout", "--", "login", "browse", "buy",
+			"browse", "buy", "logout", "--", "login", "search", "browse",
+			"buy", "browse", "buy"								};
+
+	/**
+	 * The logs on which the options that should not change the model of
+	 * kTails are tested.
+	 */
+	private static final String[][]	equivalenceLogs	= new String[][] {
+			openReadCloseLog, branchingLog					};
+
 	private static void testKEqual(EventNode e1, EventNode e2, int k) {
 		// e1 =k= e2 should imply e2 =k= e1
 		assertTrue(KTails.kEquals(e1, e2, k));
@@ -104,6 +131,249 @@ public class KTailsTests extends SynopticTest {
 		// assertTrue(pGraph.getNodes().size() == 6);
 	}
 
+	/**
+	 * Tests that grouping partitions by hashing their k-string sets produces
+	 * the same model as comparing all pairs of partitions.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void hashGroupingMatchesPairwiseTest()
+			throws InternalSynopticException, ParseException {
+		final AbstractOptions options = AbstractMain.getInstance().options;
+		boolean hashGrouping = options.kTailsHashGrouping;
+		try {
+			assertSameModels(new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsHashGrouping = false;
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsHashGrouping = true;
+				}
+			}, 4);
+		} finally {
+			options.kTailsHashGrouping = hashGrouping;
+		}
+	}
+
+	/**
+	 * Tests that starting kTails from a partition graph in which events with
+	 * identical futures share a partition produces the same model as starting
+	 * from one partition per event.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void identicalFuturesPartitioningTest()
+			throws InternalSynopticException, ParseException {
+		ChainsTraceGraph g = makeSimpleGraph();
+		PartitionGraph initial = PartitionGraph
+				.newIdenticalFuturesPartitionGraph(g, null);
+		assertTrue(initial.getNodes().size() < g.getNodes().size());
+
+		final AbstractOptions options = AbstractMain.getInstance().options;
+		boolean identicalFutures = options.kTailsIdenticalFuturesPartitioning;
+		try {
+			assertSameModels(new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsIdenticalFuturesPartitioning = false;
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsIdenticalFuturesPartitioning = true;
+				}
+			}, 4);
+		} finally {
+			options.kTailsIdenticalFuturesPartitioning = identicalFutures;
+		}
+	}
+
+	/**
+	 * Tests that computing k-string sets bottom-up as shared tries produces the
+	 * same model as enumerating the k-strings of every partition.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void futureTrieMatchesEnumerationTest()
+			throws InternalSynopticException, ParseException {
+		final AbstractOptions options = AbstractMain.getInstance().options;
+		boolean futureTrie = options.kTailsFutureTrie;
+		boolean chainWindows = options.kTailsChainWindows;
+		options.kTailsChainWindows = false;
+		try {
+			assertSameModels(new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsFutureTrie = false;
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsFutureTrie = true;
+				}
+			}, 5);
+		} finally {
+			options.kTailsFutureTrie = futureTrie;
+			options.kTailsChainWindows = chainWindows;
+		}
+	}
+
+	/**
+	 * Tests that pre-computing k-string sets on several threads produces the
+	 * same model as pre-computing them on one thread.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void parallelPrecomputationTest() throws InternalSynopticException,
+			ParseException {
+		final AbstractOptions options = AbstractMain.getInstance().options;
+		int threads = options.threads;
+		boolean futureTrieOption = options.kTailsFutureTrie;
+		boolean chainWindows = options.kTailsChainWindows;
+		options.kTailsChainWindows = false;
+		try {
+			for (boolean futureTrie : new boolean[] { false, true }) {
+				options.kTailsFutureTrie = futureTrie;
+				assertSameModels(new Runnable() {
+					@Override
+					public void run() {
+						options.threads = 1;
+					}
+				}, new Runnable() {
+					@Override
+					public void run() {
+						options.threads = 4;
+					}
+				}, 4);
+			}
+		} finally {
+			options.threads = threads;
+			options.kTailsFutureTrie = futureTrieOption;
+			options.kTailsChainWindows = chainWindows;
+		}
+	}
+
+	/**
+	 * Tests that grouping the events of chain traces by their k-window keys
+	 * produces the same model as comparing k-string sets.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void chainWindowsMatchKStringsTest()
+			throws InternalSynopticException, ParseException {
+		final AbstractOptions options = AbstractMain.getInstance().options;
+		boolean chainWindows = options.kTailsChainWindows;
+		try {
+			assertSameModels(new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsChainWindows = false;
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					options.kTailsChainWindows = true;
+				}
+			}, 7);
+		} finally {
+			options.kTailsChainWindows = chainWindows;
+		}
+	}
+
+	/**
+	 * Asserts that, for every log of equivalenceLogs and every k from 1 to
+	 * kMax, kTails builds the same model -- the same partitions with the same
+	 * k parameters -- after on runs as after off runs. The caller restores the
+	 * options that off and on set.
+	 */
+	private static void assertSameModels(Runnable off, Runnable on, int kMax)
+			throws InternalSynopticException, ParseException {
+		for (String[] log : equivalenceLogs) {
+			for (int k = 1; k <= kMax; k++) {
+				off.run();
+				PartitionGraph expected = KTails.performKTails(
+						genChainsTraceGraph(log), k);
+				on.run();
+				PartitionGraph actual = KTails.performKTails(
+						genChainsTraceGraph(log), k);
+				assertEquals(getKParams(expected), getKParams(actual));
+			}
+		}
+	}
+
+	private static ChainsTraceGraph genChainsTraceGraph(String[] log)
+			throws InternalSynopticException, ParseException {
+		return (ChainsTraceGraph) genChainsTraceGraph(log, genDefParser());
+	}
+
+	/**
+	 * Tests that the models of a kTails sweep are the models of separate kTails
+	 * runs for every k.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void sweepMatchesPerKRunsTest() throws InternalSynopticException,
+			ParseException {
+		final int kMax = 4;
+		final Map<Integer, Set<Set<String>>> sweepPartitionings = new HashMap<Integer, Set<Set<String>>>();
+		List<KTails.SweepStats> stats = KTails.performKTailsSweep(
+				makeSimpleGraph(), kMax, new ObjIntConsumer<PartitionGraph>() {
+					@Override
+					public void accept(PartitionGraph pGraph, int k) {
+						sweepPartitionings.put(k, getPartitioning(pGraph));
+					}
+				});
+
+		assertEquals(kMax, stats.size());
+		for (int k = 1; k <= kMax; k++) {
+			PartitionGraph expected = KTails.performKTails(makeSimpleGraph(),
+					k);
+			assertEquals(getPartitioning(expected), sweepPartitionings.get(k));
+			assertEquals(k, stats.get(k - 1).getK());
+			assertEquals(expected.getNodes().size(), stats.get(k - 1)
+					.getNumStates());
+		}
+	}
+
+	/**
+	 * Returns the partitioning of a graph as a set of the event identifiers of
+	 * its partitions.
+	 */
+	private static Set<Set<String>> getPartitioning(PartitionGraph pGraph) {
+		Set<Set<String>> partitioning = new HashSet<Set<String>>();
+		for (Partition p : pGraph.getNodes()) {
+			partitioning.add(getEventIds(p));
+		}
+		return partitioning;
+	}
+
+	/**
+	 * Maps every partition of a graph, in the form used by getPartitioning, to
+	 * its k parameter.
+	 */
+	private static Map<Set<String>, Integer> getKParams(PartitionGraph pGraph) {
+		Map<Set<String>, Integer> kParams = new HashMap<Set<String>, Integer>();
+		for (Partition p : pGraph.getNodes()) {
+			kParams.put(getEventIds(p), p.getkParam());
+		}
+		return kParams;
+	}
+
 	/**
 	 * Returns a simple trace graph with three short chains.
 	 * 
@@ -0,0 +1,215 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mkTails.algorithms.graphops.IOperation;
+import mkTails.algorithms.graphops.PartitionMerge;
+import mkTails.algorithms.graphops.PartitionMultiMerge;
+import mkTails.algorithms.graphops.PartitionMultiSplit;
+import mkTails.algorithms.graphops.PartitionSplit;
+import mkTails.main.parser.ParseException;
+import mkTails.model.EventNode;
+import mkTails.model.GraphSnapshot;
+import mkTails.model.Partition;
+import mkTails.model.PartitionGraph;
+import mkTails.model.PartitionGraphOverlay;
+import mkTails.model.interfaces.IGraph;
+import mkTails.tests.SynopticTest;
+import mkTails.util.InternalSynopticException;
+
+/**
+ * Tests the operations on partition graphs in mkTails.model.PartitionGraph.
+ */
+public class PartitionGraphTests extends SynopticTest {
+
+	/**
+	 * Tests that applying a batch of merges leaves no stale entries in the
+	 * transition cache of a partition graph.
+	 *
+	 * @throws ParseException
+	 * @throws InternalSynopticException
+	 */
+	@Test
+	public void applyAllCacheTest() throws InternalSynopticException,
+			ParseException {
+		PartitionGraph pGraph = new PartitionGraph(
+				genInitialLinearGraph(openReadCloseLog), false, null);
+		// Fill the cache.
+		for (Partition p : pGraph.getNodes()) {
+			pGraph.getAdjacentNodes(p);
+		}
+
+		// Merge all partitions with the same event type.
+		Map<String, PartitionMultiMerge> mergeByLabel = new HashMap<String, PartitionMultiMerge>();
+		Map<String, Partition> firstByLabel = new HashMap<String, Partition>();
+		for (Partition p : pGraph.getNodes()) {
+			String label = p.getEType().getETypeLabel();
+			if (!firstByLabel.containsKey(label)) {
+				firstByLabel.put(label, p);
+			} else if (!mergeByLabel.containsKey(label)) {
+				List<Partition> toMerge = new ArrayList<Partition>();
+				toMerge.add(p);
+				mergeByLabel.put(label, new PartitionMultiMerge(
+						firstByLabel.get(label), toMerge));
+			} else {
+				mergeByLabel.get(label).addToMerge(p);
+			}
+		}
+		pGraph.applyAll(mergeByLabel.values());
+
+		assertEquals(firstByLabel.size(), pGraph.getNodes().size());
+		for (Partition p : pGraph.getNodes()) {
+			assertEquals(p.getAllSuccessors(), pGraph.getAdjacentNodes(p));
+		}
+	}
+
+	/**
+	 * Tests that a split applied in an overlay yields the same graph as the
+	 * split applied to the partition graph, and leaves the partition graph
+	 * unchanged.
+	 */
+	@Test
+	public void splitOverlayTest() throws InternalSynopticException,
+			ParseException {
+		PartitionGraph pGraph = genMinedPartitionGraph(openReadCloseLog, true);
+		Map<Set<String>, Set<Set<String>>> original = getAdjacency(pGraph);
+
+		for (Partition p : new ArrayList<Partition>(pGraph.getNodes())) {
+			if (p.size() < 2) {
+				continue;
+			}
+			PartitionSplit split = new PartitionSplit(p);
+			split.addEventToSplit(p.getEventNodes().iterator().next());
+			PartitionMultiSplit splitOp = new PartitionMultiSplit(split);
+
+			Map<Set<String>, Set<Set<String>>> overlaid = getAdjacency(new PartitionGraphOverlay(
+					pGraph, splitOp));
+			assertEquals(original, getAdjacency(pGraph));
+
+			IOperation rewind = pGraph.apply(splitOp);
+			assertEquals(getAdjacency(pGraph), overlaid);
+			pGraph.apply(rewind);
+		}
+	}
+
+	/**
+	 * Tests that rolling back to a checkpoint undoes merges and splits,
+	 * including nested ones, and restores the transition cache.
+	 */
+	@Test
+	public void checkpointRollbackTest() throws InternalSynopticException,
+			ParseException {
+		PartitionGraph pGraph = genMinedPartitionGraph(openReadCloseLog,
+				false);
+		Map<Set<String>, Set<Set<String>>> original = getAdjacency(pGraph);
+
+		List<Partition> partitions = new ArrayList<Partition>(
+				pGraph.getNodes());
+		for (Partition p : partitions) {
+			for (Partition q : partitions) {
+				if (p == q || !p.getEType().equals(q.getEType())) {
+					continue;
+				}
+				int checkpoint = pGraph.checkpoint();
+				assertTrue(pGraph.apply(new PartitionMerge(p, q)) == null);
+				getAdjacency(pGraph);
+
+				// Split the merged partition again, and keep the split.
+				int nested = pGraph.checkpoint();
+				PartitionSplit split = new PartitionSplit(p);
+				split.addEventToSplit(p.getEventNodes().iterator().next());
+				pGraph.apply(new PartitionMultiSplit(split));
+				getAdjacency(pGraph);
+				pGraph.release(nested);
+
+				pGraph.rollback(checkpoint);
+				assertFalse(pGraph.hasCheckpoint());
+				assertEquals(original, getAdjacency(pGraph));
+				for (Partition r : pGraph.getNodes()) {
+					assertEquals(r.getAllSuccessors(),
+							pGraph.getAdjacentNodes(r));
+					for (EventNode e : r.getEventNodes()) {
+						assertTrue(e.getParent() == r);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that a snapshot has the adjacency of the partition graph, and that
+	 * its arrays are not affected by later merges.
+	 */
+	@Test
+	public void snapshotTest() throws InternalSynopticException,
+			ParseException {
+		PartitionGraph pGraph = genMinedPartitionGraph(openReadCloseLog,
+				false);
+		Map<Set<String>, Set<Set<String>>> original = getAdjacency(pGraph);
+		GraphSnapshot<Partition> snapshot = pGraph.snapshot();
+		assertEquals(original, getAdjacency(snapshot));
+		assertTrue(snapshot.getDummyInitialNode() == pGraph
+				.getDummyInitialNode());
+
+		int[] offsets = snapshot.getOffsets();
+		int[] targets = snapshot.getTargets();
+		assertEquals(pGraph.getNodes().size(), snapshot.getNumNodes());
+		for (int i = 0; i < snapshot.getNumNodes(); i++) {
+			Partition p = snapshot.getNode(i);
+			assertEquals(i, snapshot.getId(p));
+			assertEquals(p.getEType().getDenseId(), snapshot.getETypeId(i));
+			Set<Partition> succs = new HashSet<Partition>();
+			for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+				succs.add(snapshot.getNode(targets[j]));
+			}
+			assertEquals(pGraph.getAdjacentNodes(p), succs);
+		}
+
+		int[] savedOffsets = offsets.clone();
+		int[] savedTargets = targets.clone();
+		List<Partition> partitions = new ArrayList<Partition>(
+				pGraph.getNodes());
+		for (Partition p : partitions) {
+			for (Partition q : partitions) {
+				if (p != q && pGraph.getNodes().contains(p)
+						&& pGraph.getNodes().contains(q)
+						&& p.getEType().equals(q.getEType())) {
+					pGraph.apply(new PartitionMerge(p, q));
+				}
+			}
+		}
+		assertTrue(pGraph.getNodes().size() < snapshot.getNumNodes());
+		assertTrue(Arrays.equals(savedOffsets, snapshot.getOffsets()));
+		assertTrue(Arrays.equals(savedTargets, snapshot.getTargets()));
+		assertEquals(partitions.size(), snapshot.getNodes().size());
+	}
+
+	/**
+	 * Maps every partition of a graph, in the form used by getPartitioning, to
+	 * its successors.
+	 */
+	private static Map<Set<String>, Set<Set<String>>> getAdjacency(
+			IGraph<Partition> pGraph) {
+		Map<Set<String>, Set<Set<String>>> adjacency = new HashMap<Set<String>, Set<Set<String>>>();
+		for (Partition p : pGraph.getNodes()) {
+			Set<Set<String>> succs = new HashSet<Set<String>>();
+			for (Partition succ : pGraph.getAdjacentNodes(p)) {
+				succs.add(getEventIds(succ));
+			}
+			adjacency.put(getEventIds(p), succs);
+		}
+		return adjacency;
+	}
+}
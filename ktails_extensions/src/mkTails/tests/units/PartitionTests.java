@@ -0,0 +1,222 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mkTails.algorithms.KTails;
+import mkTails.algorithms.graphops.IOperation;
+import mkTails.algorithms.graphops.PartitionMerge;
+import mkTails.invariants.BinaryInvariant;
+import mkTails.invariants.ITemporalInvariant;
+import mkTails.invariants.TemporalInvariantSet;
+import mkTails.invariants.miners.ChainWalkingTOInvMiner;
+import mkTails.main.AbstractMain;
+import mkTails.main.parser.ParseException;
+import mkTails.model.ChainsTraceGraph;
+import mkTails.model.EventNode;
+import mkTails.model.Partition;
+import mkTails.model.PartitionGraph;
+import mkTails.model.event.Event;
+import mkTails.model.interfaces.ITransition;
+import mkTails.tests.SynopticTest;
+import mkTails.util.InternalSynopticException;
+
+/**
+ * Tests the transitions of partitions in mkTails.model.Partition.
+ */
+public class PartitionTests extends SynopticTest {
+
+	/**
+	 * Tests that the cached transitions of partitions, and their counts,
+	 * follow merges, splits and rollbacks.
+	 */
+	@Test
+	public void partitionTransitionCacheTest() throws InternalSynopticException,
+			ParseException {
+		PartitionGraph pGraph = genMinedPartitionGraph(openReadCloseLog,
+				false);
+		assertTransitionsMatchSuccessors(pGraph);
+
+		List<Partition> partitions = new ArrayList<Partition>(
+				pGraph.getNodes());
+		for (Partition p : partitions) {
+			for (Partition q : partitions) {
+				if (p == q || !p.getEType().equals(q.getEType())
+						|| !pGraph.getNodes().contains(p)
+						|| !pGraph.getNodes().contains(q)) {
+					continue;
+				}
+				int checkpoint = pGraph.checkpoint();
+				pGraph.apply(new PartitionMerge(p, q));
+				assertTransitionsMatchSuccessors(pGraph);
+				pGraph.rollback(checkpoint);
+				assertTransitionsMatchSuccessors(pGraph);
+
+				IOperation rewind = pGraph.apply(new PartitionMerge(p, q));
+				assertTransitionsMatchSuccessors(pGraph);
+				if (p.getEventNodes().size() % 2 == 0) {
+					pGraph.apply(rewind);
+					assertTransitionsMatchSuccessors(pGraph);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that weighting the transitions of a partition does not set the
+	 * weights of the transitions that getAllTransitions returns, and that the
+	 * weighted transitions are fresh copies on every call.
+	 */
+	@Test
+	public void weightedTransitionsAreCopiesTest()
+			throws InternalSynopticException, ParseException {
+		PartitionGraph pGraph = KTails.performKTails(
+				genInitialLinearGraph(openReadCloseLog), 1);
+		for (Partition p : pGraph.getNodes()) {
+			List<? extends ITransition<Partition>> all = p.getAllTransitions();
+			List<? extends ITransition<Partition>> weighted = p
+					.getWeightedTransitions();
+			assertEquals(all.size(), weighted.size());
+			for (ITransition<Partition> tr : all) {
+				assertTrue(tr.getCount() == null);
+				assertTrue(tr.getProbability() == null);
+			}
+			List<Integer> counts = new ArrayList<Integer>();
+			for (ITransition<Partition> tr : weighted) {
+				assertTrue(tr.getCount() != null);
+				for (ITransition<Partition> shared : all) {
+					assertTrue(tr != shared);
+				}
+				counts.add(tr.getCount());
+				tr.setCount(tr.getCount() + 1);
+			}
+			// Changing a returned copy leaves later copies as they were.
+			List<Integer> newCounts = new ArrayList<Integer>();
+			for (ITransition<Partition> tr : p.getWeightedTransitions()) {
+				newCounts.add(tr.getCount());
+			}
+			assertEquals(counts, newCounts);
+		}
+	}
+
+	private static void assertTransitionsMatchSuccessors(PartitionGraph pGraph) {
+		for (Partition p : pGraph.getNodes()) {
+			Set<Partition> targets = new HashSet<Partition>();
+			for (ITransition<Partition> tr : p.getAllTransitions()) {
+				assertTrue(tr.getSource() == p);
+				targets.add(tr.getTarget());
+			}
+			assertEquals(p.getAllSuccessors(), targets);
+			for (ITransition<Partition> tr : p.getWeightedTransitions()) {
+				// INITIAL counts the traces that start in each partition.
+				int count = 0;
+				for (EventNode e : p.getEventNodes()) {
+					for (EventNode eSucc : e.getAllSuccessors()) {
+						if (eSucc.getParent() == tr.getTarget()) {
+							if (!p.isInitial()) {
+								count += e.getMultiplicity();
+								break;
+							}
+							count += eSucc.getMultiplicity();
+						}
+					}
+				}
+				assertEquals(count, (int) tr.getCount());
+			}
+			targets.clear();
+			for (ITransition<Partition> tr : p
+					.getTransitionsWithExactRelations(Collections
+							.singleton(Event.defTimeRelationStr))) {
+				targets.add(tr.getTarget());
+			}
+			assertEquals(p.getAllSuccessors(), targets);
+		}
+	}
+
+	/**
+	 * Tests that deduplicated traces yield the same transition counts, and the
+	 * same invariant support counts, as the full log.
+	 */
+	@Test
+	public void deduplicateTracesTest() throws InternalSynopticException,
+			ParseException {
+		ChainWalkingTOInvMiner miner = new ChainWalkingTOInvMiner();
+		ChainsTraceGraph full = (ChainsTraceGraph) genChainsTraceGraph(
+				openReadCloseLog, genDefParser());
+		Map<String, Integer> expectedSupport = getSupportCounts(miner
+				.computeInvariants(full, false, true));
+		Map<String, Integer> expected = getTransitionCounts(KTails
+				.performKTails(full, 1));
+		assertFalse(expectedSupport.isEmpty());
+
+		boolean deduplicateTraces = AbstractMain.getInstance().options.deduplicateTraces;
+		AbstractMain.getInstance().options.deduplicateTraces = true;
+		try {
+			ChainsTraceGraph g = (ChainsTraceGraph) genChainsTraceGraph(
+					openReadCloseLog, genDefParser());
+			// The second and fourth traces are identical.
+			assertEquals(4, g.getNumTraces());
+			int numInputTraces = 0;
+			for (EventNode first : g.getDummyInitialNode().getAllSuccessors()) {
+				numInputTraces += first.getMultiplicity();
+			}
+			assertEquals(5, numInputTraces);
+
+			assertEquals(expectedSupport, getSupportCounts(miner
+					.computeInvariants(g, false, true)));
+			assertEquals(expected, getTransitionCounts(KTails.performKTails(
+					g, 1)));
+		} finally {
+			AbstractMain.getInstance().options.deduplicateTraces = deduplicateTraces;
+		}
+	}
+
+	/**
+	 * Maps every transition of a graph whose partitions each hold a single
+	 * event type to its weighted count.
+	 */
+	private static Map<String, Integer> getTransitionCounts(
+			PartitionGraph pGraph) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Partition p : pGraph.getNodes()) {
+			for (ITransition<Partition> tr : p.getWeightedTransitions()) {
+				counts.put(p.getEType().getETypeLabel() + "->"
+						+ tr.getTarget().getEType().getETypeLabel(),
+						tr.getCount());
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Maps every invariant of a set that has statistics to its support count.
+	 */
+	private static Map<String, Integer> getSupportCounts(
+			TemporalInvariantSet invariants) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (ITemporalInvariant inv : invariants) {
+			if (!(inv instanceof BinaryInvariant)) {
+				continue;
+			}
+			BinaryInvariant binv = (BinaryInvariant) inv;
+			if (binv.getStatistics() != null) {
+				counts.put(binv.getFirst().getETypeLabel() + " "
+						+ binv.getShortName() + " "
+						+ binv.getSecond().getETypeLabel(),
+						binv.getStatistics().supportCount);
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,102 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import mkTails.algorithms.KTails;
+import mkTails.algorithms.graphops.IOperation;
+import mkTails.algorithms.graphops.PartitionMerge;
+import mkTails.benchmarks.PerformanceMetrics;
+import mkTails.invariants.CExamplePath;
+import mkTails.invariants.TemporalInvariantSet;
+import mkTails.main.AbstractMain;
+import mkTails.main.parser.ParseException;
+import mkTails.model.Partition;
+import mkTails.model.PartitionGraph;
+import mkTails.tests.SynopticTest;
+import mkTails.util.InternalSynopticException;
+
+/**
+ * Tests the model checking of partition graphs against the invariants in
+ * mkTails.invariants.TemporalInvariantSet.
+ */
+public class TemporalInvariantSetTests extends SynopticTest {
+
+	/**
+	 * Tests that checking a merge against only the invariants that it may
+	 * affect finds a violation iff checking it against all invariants does,
+	 * and that the invariants of unrelated branches of the graph are skipped.
+	 */
+	@Test
+	public void scopedInvariantChecksTest() throws InternalSynopticException,
+			ParseException {
+		// The a-b-c and x-y-z traces only share INITIAL and TERMINAL.
+		String[] logArr = new String[] { "a", "b", "c", "--", "a", "c", "b",
+				"c", "--", "x", "y", "z", "--", "x", "z", "y", "z" };
+		PartitionGraph pGraph = genMinedPartitionGraph(logArr, false);
+		TemporalInvariantSet invariants = pGraph.getInvariants();
+		assertTrue(invariants.getFirstCounterExample(pGraph) == null);
+
+		PerformanceMetrics.clear();
+		int numMerges = 0;
+		List<Partition> partitions = new ArrayList<Partition>(
+				pGraph.getNodes());
+		for (Partition p : partitions) {
+			for (Partition q : partitions) {
+				if (p == q || !p.getEType().equals(q.getEType())) {
+					continue;
+				}
+				IOperation rewind = pGraph.apply(new PartitionMerge(p, q));
+				assertEquals(invariants.getFirstCounterExample(pGraph) == null,
+						invariants.getFirstCounterExample(pGraph,
+								Collections.singleton(p)) == null);
+				pGraph.apply(rewind);
+				numMerges++;
+			}
+		}
+		assertTrue(numMerges > 0);
+		long checks = PerformanceMetrics.get().getValue("invariant_checks");
+		long skipped = PerformanceMetrics.get().getValue(
+				"skipped_invariant_checks");
+		assertTrue(checks > 0);
+		assertTrue(skipped > 0);
+		assertTrue(checks + skipped <= (long) numMerges
+				* invariants.numInvariants());
+	}
+
+	/**
+	 * Tests that searching for counter-examples on several threads returns the
+	 * same sorted list as searching on one thread.
+	 */
+	@Test
+	public void parallelCounterExamplesTest() throws InternalSynopticException,
+			ParseException {
+		TemporalInvariantSet invariants = genMinedPartitionGraph(
+				openReadCloseLog, false).getInvariants();
+		PartitionGraph pGraph = KTails.performKTails(
+				genInitialLinearGraph(openReadCloseLog), 1);
+
+		int threads = AbstractMain.getInstance().options.threads;
+		boolean useFSMChecker = AbstractMain.getInstance().options.useFSMChecker;
+		AbstractMain.getInstance().options.useFSMChecker = true;
+		try {
+			AbstractMain.getInstance().options.threads = 1;
+			List<CExamplePath<Partition>> expected = invariants
+					.getAllCounterExamples(pGraph);
+			AbstractMain.getInstance().options.threads = 4;
+			List<CExamplePath<Partition>> actual = invariants
+					.getAllCounterExamples(pGraph);
+			assertTrue(expected != null);
+			assertEquals(expected.toString(), actual.toString());
+		} finally {
+			AbstractMain.getInstance().options.threads = threads;
+			AbstractMain.getInstance().options.useFSMChecker = useFSMChecker;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mkTails.algorithms.FloydWarshall;
+import mkTails.algorithms.TransitiveClosure;
+import mkTails.main.AbstractMain;
+import mkTails.main.parser.ParseException;
+import mkTails.model.ChainsTraceGraph;
+import mkTails.model.DAGsTraceGraph;
+import mkTails.model.EventNode;
+import mkTails.model.event.Event;
+import mkTails.tests.SynopticTest;
+import mkTails.util.InternalSynopticException;
+
+/**
+ * Tests the transitive closures of trace graphs in
+ * mkTails.algorithms.TransitiveClosure.
+ */
+public class TransitiveClosureTests extends SynopticTest {
+
+	/**
+	 * Tests that the block transitive closures of random DAG traces, and of
+	 * chains, hold exactly the pairs of nodes that are connected by paths.
+	 */
+	@Test
+	public void transitiveClosureBlocksTest() throws InternalSynopticException,
+			ParseException {
+		Random random = new Random(0);
+		DAGsTraceGraph g = new DAGsTraceGraph();
+		List<EventNode> nodes = new ArrayList<EventNode>();
+		for (int t = 0; t < 4; t++) {
+			List<EventNode> trace = new ArrayList<EventNode>();
+			for (int i = 0; i < 150; i++) {
+				EventNode node = new EventNode(new Event("e" + random.nextInt(4)));
+				node.setTraceID(t);
+				g.add(node);
+				// A forest: every node but the roots has one parent.
+				if (i == 0 || random.nextInt(10) == 0) {
+					g.tagInitial(node, Event.defTimeRelationStr);
+				} else {
+					trace.get(i - 1 - random.nextInt(Math.min(i, 8)))
+							.addTransition(node, Event.defTimeRelationStr);
+				}
+				trace.add(node);
+			}
+			nodes.addAll(trace);
+		}
+		for (EventNode node : nodes) {
+			if (node.getAllSuccessors().isEmpty()) {
+				g.tagTerminal(node, Event.defTimeRelationStr);
+			}
+		}
+		int savedThreads = AbstractMain.getInstance().options.threads;
+		try {
+			// The traces are closed in parallel with several threads.
+			for (int threads : new int[] { 1, 4 }) {
+				AbstractMain.getInstance().options.threads = threads;
+				checkTransitiveClosure(nodes,
+						g.getTransitiveClosure(Event.defTimeRelationSet, false));
+				checkTransitiveClosure(nodes,
+						g.getTransitiveClosure(Event.defTimeRelationSet, true));
+			}
+		} finally {
+			AbstractMain.getInstance().options.threads = savedThreads;
+		}
+
+		// Join the trees of every trace into a DAG, for Warshall's algorithm.
+		for (int i = 0; i < nodes.size() - 8; i++) {
+			if (nodes.get(i).getTraceID() == nodes.get(i + 8).getTraceID()
+					&& random.nextInt(4) == 0) {
+				nodes.get(i).addTransition(nodes.get(i + 8),
+						Event.defTimeRelationStr);
+			}
+		}
+		checkTransitiveClosure(nodes,
+				g.getTransitiveClosure(Event.defTimeRelationSet, true));
+
+		ChainsTraceGraph chains = genInitialLinearGraph(openReadCloseLog);
+		assertTrue(chains.getTransitiveClosure(Event.defTimeRelationSet)
+				.isEqual(FloydWarshall.warshallAlg(chains,
+						Event.defTimeRelationSet)));
+	}
+
+	/**
+	 * Checks tc against the reachability between nodes that a depth-first
+	 * search finds.
+	 */
+	private static void checkTransitiveClosure(List<EventNode> nodes,
+			TransitiveClosure tc) {
+		for (EventNode m : nodes) {
+			Set<EventNode> reachable = new HashSet<EventNode>();
+			LinkedList<EventNode> stack = new LinkedList<EventNode>();
+			stack.push(m);
+			while (!stack.isEmpty()) {
+				for (EventNode child : stack.pop().getAllSuccessors()) {
+					if (!child.isTerminal() && reachable.add(child)) {
+						stack.push(child);
+					}
+				}
+			}
+			for (EventNode n : nodes) {
+				assertEquals(reachable.contains(n), tc.isReachable(m, n));
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package mkTails.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mkTails.model.EventNode;
+import mkTails.model.event.DistEventType;
+import mkTails.model.event.Event;
+import mkTails.tests.SynopticTest;
+import mkTails.util.time.EqualVectorTimestampsException;
+import mkTails.util.time.NotComparableVectorsException;
+import mkTails.util.time.VectorClockIndex;
+import mkTails.util.time.VectorTime;
+
+/**
+ * Tests the vector clock index in mkTails.util.time.VectorClockIndex.
+ */
+public class VectorClockIndexTests extends SynopticTest {
+
+	/**
+	 * Tests that the direct and process-local successors of events with vector
+	 * clocks, found with a vector clock index, are those found by comparing
+	 * all events, whether or not the pids of the event types are the processes
+	 * of the clocks, and that equal and different length timestamps are still
+	 * errors.
+	 */
+	@Test
+	public void vectorClockDirectSuccessorsTest() {
+		Random random = new Random(0);
+		int numProcesses = 4;
+		int[][] clocks = new int[numProcesses][numProcesses];
+		List<int[]> messages = new ArrayList<int[]>();
+		List<List<Integer>> times = new ArrayList<List<Integer>>();
+		Map<List<Integer>, Integer> processOfTime = new HashMap<List<Integer>, Integer>();
+		for (int i = 0; i < 300; i++) {
+			int p = random.nextInt(numProcesses);
+			if (!messages.isEmpty() && random.nextInt(3) == 0) {
+				int[] message = messages.remove(random.nextInt(messages.size()));
+				for (int q = 0; q < numProcesses; q++) {
+					clocks[p][q] = Math.max(clocks[p][q], message[q]);
+				}
+			}
+			clocks[p][p]++;
+			if (random.nextInt(3) == 0) {
+				messages.add(clocks[p].clone());
+			}
+			List<Integer> time = new ArrayList<Integer>();
+			for (int c : clocks[p]) {
+				time.add(c);
+			}
+			times.add(time);
+			processOfTime.put(time, p);
+		}
+		Collections.shuffle(times, random);
+
+		// With the pids of the processes, and with pids that group the events
+		// of several processes.
+		for (int pidsPerProcess : new int[] { 1, 2 }) {
+			checkSuccessors(times, processOfTime, pidsPerProcess);
+		}
+
+		List<EventNode> equalTimes = new ArrayList<EventNode>();
+		List<EventNode> differentLengths = new ArrayList<EventNode>();
+		for (String time : new String[] { "1,0", "1,1", "1,0" }) {
+			Event event = new Event("e");
+			event.setTime(new VectorTime(time));
+			equalTimes.add(new EventNode(event));
+		}
+		for (String time : new String[] { "1,0", "1,1,0" }) {
+			Event event = new Event("e");
+			event.setTime(new VectorTime(time));
+			differentLengths.add(new EventNode(event));
+		}
+		try {
+			EventNode.getDirectPOSuccessors(equalTimes);
+			Assert.fail("Equal vector timestamps were not reported");
+		} catch (EqualVectorTimestampsException e) {
+			// Expected.
+		}
+		try {
+			EventNode.getDirectPOSuccessors(differentLengths);
+			Assert.fail("Vector timestamps of different lengths were not reported");
+		} catch (NotComparableVectorsException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Checks the successors found with a vector clock index against those
+	 * found by comparing all events, for events with the given times, whose
+	 * event types have the pid of their process divided by pidsPerProcess.
+	 */
+	private static void checkSuccessors(List<List<Integer>> times,
+			Map<List<Integer>, Integer> processOfTime, int pidsPerProcess) {
+		List<EventNode> indexed = new ArrayList<EventNode>();
+		List<EventNode> pairwise = new ArrayList<EventNode>();
+		for (List<Integer> time : times) {
+			for (List<EventNode> nodes : Arrays.asList(indexed, pairwise)) {
+				Event event = new Event(DistEventType.LocalEvent("e",
+						processOfTime.get(time) / pidsPerProcess));
+				event.setTime(new VectorTime(time));
+				nodes.add(new EventNode(event));
+			}
+		}
+		assertTrue(VectorClockIndex.build(indexed) != null);
+		List<Set<EventNode>> successors = EventNode
+				.getDirectPOSuccessors(indexed);
+		for (int i = 0; i < times.size(); i++) {
+			Set<Integer> expected = new HashSet<Integer>();
+			for (EventNode e : EventNode.getDirectPOSuccessors(
+					pairwise.get(i), pairwise)) {
+				expected.add(pairwise.indexOf(e));
+			}
+			Set<Integer> actual = new HashSet<Integer>();
+			for (EventNode e : successors.get(i)) {
+				actual.add(indexed.indexOf(e));
+			}
+			assertEquals(expected, actual);
+			EventNode expectedLocal = pairwise.get(i)
+					.getProcessLocalSuccessor();
+			EventNode actualLocal = indexed.get(i).getProcessLocalSuccessor();
+			assertEquals(expectedLocal == null ? -1 : pairwise
+					.indexOf(expectedLocal), actualLocal == null ? -1 : indexed
+					.indexOf(actualLocal));
+		}
+	}
+}
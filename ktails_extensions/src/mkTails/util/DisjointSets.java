@@ -0,0 +1,60 @@
+package mkTails.util;
+
+/**
+ * A union-find structure over the elements 0..n-1. The representative of a set
+ * is always its smallest element, so that callers that scan elements in index
+ * order can tell whether an element was already joined to an earlier one.
+ */
+public class DisjointSets {
+    private final int[] parent;
+
+    public DisjointSets(int n) {
+        parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+    }
+
+    public int size() {
+        return parent.length;
+    }
+
+    /**
+     * Returns the smallest element in the set of i.
+     */
+    public int find(int i) {
+        int root = i;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        // Path compression.
+        while (parent[i] != root) {
+            int next = parent[i];
+            parent[i] = root;
+            i = next;
+        }
+        return root;
+    }
+
+    /**
+     * Joins the sets of i and j, and returns the representative of the joined
+     * set.
+     */
+    public int union(int i, int j) {
+        int ri = find(i);
+        int rj = find(j);
+        if (ri < rj) {
+            parent[rj] = ri;
+            return ri;
+        }
+        parent[ri] = rj;
+        return rj;
+    }
+
+    /**
+     * Whether or not i is the representative of its set.
+     */
+    public boolean isRepresentative(int i) {
+        return parent[i] == i;
+    }
+}
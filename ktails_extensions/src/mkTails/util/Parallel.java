@@ -0,0 +1,82 @@
+package mkTails.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Helpers for running independent pieces of work on several threads.
+ */
+public class Parallel {
+
+    /**
+     * One pool per thread count, created on first use and kept for the rest of
+     * the run, so that hot loops don't pay for starting threads on every call.
+     * Pool workers are daemon threads, so the pools don't keep the JVM alive.
+     */
+    private static final ConcurrentMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    /**
+     * Returns the shared pool with the given number of threads.
+     */
+    private static ForkJoinPool getPool(int threads) {
+        return pools.computeIfAbsent(threads,
+                new Function<Integer, ForkJoinPool>() {
+                    @Override
+                    public ForkJoinPool apply(Integer t) {
+                        return new ForkJoinPool(t);
+                    }
+                });
+    }
+
+    /**
+     * Calls body for every index in [0, n) using the given number of threads.
+     * With one thread (or fewer) the indices are visited in order on the
+     * calling thread. Otherwise the order is unspecified, so body must only
+     * touch state that belongs to its index, e.g., the index-th slot of an
+     * array.
+     */
+    public static void forEachIndex(int threads, int n, final IntConsumer body) {
+        if (threads <= 1 || n < 2) {
+            for (int i = 0; i < n; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+
+        final int size = n;
+        ForkJoinPool pool = getPool(threads);
+        if (ForkJoinTask.getPool() == pool) {
+            // Already running in this pool (a nested call): waiting on a new
+            // task from one of its workers would only tie the worker up.
+            IntStream.range(0, size).parallel().forEach(body);
+            return;
+        }
+        try {
+            // Parallel streams run in the pool of the task that starts them.
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    IntStream.range(0, size).parallel().forEach(body);
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalSynopticException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new InternalSynopticException(e);
+        }
+    }
+}
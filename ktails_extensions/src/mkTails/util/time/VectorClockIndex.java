@@ -0,0 +1,315 @@
+package mkTails.util.time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mkTails.model.EventNode;
+
+/**
+ * Indexes the events of a partially ordered trace by the process that each
+ * event occurred at, and by the position of the event at its process, as
+ * given by the vector timestamps of the events. With the index, the order of
+ * two events is a single comparison, and the direct successors of an event
+ * are found among the first events of every process that succeed it, instead
+ * of among all events.<br />
+ * <br />
+ * This relies on the timestamps being vector clocks: the ith event of process
+ * p has i as its pth component, and every other component is the number of
+ * events of that process that the event knows of, including everything that
+ * those events knew of. build() checks this as it builds the index, and
+ * returns null for traces whose timestamps are not such clocks.
+ */
+public class VectorClockIndex {
+    /** The events, in the order that they were given in. */
+    private final List<EventNode> events;
+
+    /** The clocks of the events, by event position. */
+    private final int[][] clocks;
+
+    /** The process of every event, by event position. */
+    private final int[] processOf;
+
+    /**
+     * The positions of the events of every process, in process order. The ith
+     * event of process p is at processEvents[p][i - 1].
+     */
+    private final int[][] processEvents;
+
+    private VectorClockIndex(List<EventNode> events, int[][] clocks,
+            int[] processOf, int[][] processEvents) {
+        this.events = events;
+        this.clocks = clocks;
+        this.processOf = processOf;
+        this.processEvents = processEvents;
+    }
+
+    /**
+     * Builds the index of the events of a trace.
+     *
+     * @return the index, or null if the events do not all have vector
+     *         timestamps, or their timestamps are not vector clocks
+     * @throws NotComparableVectorsException
+     *             if two of the timestamps have different lengths
+     * @throws EqualVectorTimestampsException
+     *             if two of the events have the same timestamp
+     */
+    public static VectorClockIndex build(List<EventNode> events) {
+        int n = events.size();
+        if (n == 0) {
+            return null;
+        }
+        for (EventNode e : events) {
+            if (!(e.getTime() instanceof VectorTime)) {
+                return null;
+            }
+        }
+
+        // The same errors as the pairwise comparison of all events.
+        ITime firstTime = events.get(0).getTime();
+        int numProcesses = ((VectorTime) firstTime).vector.size();
+        Map<ITime, EventNode> eventOfTime = new HashMap<ITime, EventNode>();
+        final int[][] clocks = new int[n][];
+        final long[] sums = new long[n];
+        for (int i = 0; i < n; i++) {
+            EventNode e = events.get(i);
+            List<Integer> vector = ((VectorTime) e.getTime()).vector;
+            if (vector.size() != numProcesses) {
+                throw new NotComparableVectorsException(firstTime, e.getTime());
+            }
+            EventNode other = eventOfTime.put(e.getTime(), e);
+            if (other != null) {
+                throw new EqualVectorTimestampsException(other.getTime(),
+                        e.getTime());
+            }
+            clocks[i] = new int[numProcesses];
+            for (int p = 0; p < numProcesses; p++) {
+                clocks[i][p] = vector.get(p);
+                sums[i] += clocks[i][p];
+            }
+        }
+
+        // Every event succeeds the events it knows of, which have smaller
+        // sums of clocks, so this is a topological order of the events.
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i, Integer j) {
+                return Long.compare(sums[i], sums[j]);
+            }
+        });
+
+        // Assign the events to processes in that order. An event is at the
+        // one process where it knows of one more event than the events so
+        // far, and knows of everything that the events it knows of knew of.
+        int[] processOf = new int[n];
+        int[] counts = new int[numProcesses];
+        List<List<Integer>> processLists = new ArrayList<List<Integer>>();
+        for (int p = 0; p < numProcesses; p++) {
+            processLists.add(new ArrayList<Integer>());
+        }
+        for (int i : order) {
+            int[] clock = clocks[i];
+            int process = -1;
+            for (int p = 0; p < numProcesses; p++) {
+                if (clock[p] > counts[p]) {
+                    if (process != -1 || clock[p] != counts[p] + 1) {
+                        return null;
+                    }
+                    process = p;
+                }
+            }
+            if (process == -1) {
+                return null;
+            }
+
+            List<Integer> local = processLists.get(process);
+            int[] prevClock = local.isEmpty() ? null : clocks[local
+                    .get(local.size() - 1)];
+            for (int p = 0; p < numProcesses; p++) {
+                int prevKnown = prevClock == null ? 0 : prevClock[p];
+                if (clock[p] < prevKnown) {
+                    return null;
+                }
+                if (p != process && clock[p] > prevKnown) {
+                    // The event learned of events of p, and so must know
+                    // of all that the last of them knew of.
+                    int[] knownClock = clocks[processLists.get(p).get(
+                            clock[p] - 1)];
+                    for (int q = 0; q < numProcesses; q++) {
+                        if (knownClock[q] > clock[q]) {
+                            return null;
+                        }
+                    }
+                }
+            }
+
+            processOf[i] = process;
+            local.add(i);
+            counts[process]++;
+        }
+
+        int[][] processEvents = new int[numProcesses][];
+        for (int p = 0; p < numProcesses; p++) {
+            List<Integer> local = processLists.get(p);
+            processEvents[p] = new int[local.size()];
+            for (int k = 0; k < local.size(); k++) {
+                processEvents[p][k] = local.get(k);
+            }
+        }
+        return new VectorClockIndex(events, clocks, processOf, processEvents);
+    }
+
+    /**
+     * Returns whether the event at position i precedes the event at position
+     * j: the event at j knows of the event at i.
+     */
+    public boolean lessThan(int i, int j) {
+        int p = processOf[i];
+        return i != j && clocks[j][p] >= clocks[i][p];
+    }
+
+    /**
+     * Returns the event that follows the event at position i at its process,
+     * or null if there is none.
+     */
+    public EventNode getProcessLocalSuccessor(int i) {
+        int[] local = processEvents[processOf[i]];
+        int k = clocks[i][processOf[i]];
+        return k < local.length ? events.get(local[k]) : null;
+    }
+
+    /**
+     * Returns the process-local successor of every event, by event position:
+     * the nearest event that succeeds it among the events with the same pid,
+     * where pids gives the pid of every event by position, or null if there is
+     * none. This is the successor that the pairwise search of
+     * EventNode.getDirectPOSuccessors(e1, allNodes) picks. When every pid
+     * names exactly the events of one process of the index, it is the event
+     * that follows at that process. Otherwise the events with the same pid are
+     * scanned in the order of their positions, like the pairwise search does.
+     */
+    public List<EventNode> getProcessLocalSuccessors(int[] pids) {
+        int n = events.size();
+        List<EventNode> ret = new ArrayList<EventNode>(n);
+        if (pidsAreProcesses(pids)) {
+            for (int i = 0; i < n; i++) {
+                ret.add(getProcessLocalSuccessor(i));
+            }
+            return ret;
+        }
+
+        Map<Integer, List<Integer>> eventsOfPid = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            List<Integer> sameProcess = eventsOfPid.get(pids[i]);
+            if (sameProcess == null) {
+                sameProcess = new ArrayList<Integer>();
+                eventsOfPid.put(pids[i], sameProcess);
+            }
+            sameProcess.add(i);
+        }
+        for (int i = 0; i < n; i++) {
+            int nearest = -1;
+            for (int j : eventsOfPid.get(pids[i])) {
+                if (lessThan(i, j) && (nearest == -1 || lessThan(j, nearest))) {
+                    nearest = j;
+                }
+            }
+            ret.add(nearest == -1 ? null : events.get(nearest));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns whether the events with the same pid are exactly the events of
+     * one process of the index, for every pid.
+     */
+    private boolean pidsAreProcesses(int[] pids) {
+        Map<Integer, Integer> processOfPid = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> pidOfProcess = new HashMap<Integer, Integer>();
+        for (int i = 0; i < pids.length; i++) {
+            Integer process = processOfPid.put(pids[i], processOf[i]);
+            Integer pid = pidOfProcess.put(processOf[i], pids[i]);
+            if ((process != null && process != processOf[i])
+                    || (pid != null && pid != pids[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the direct successors of every event, by event position. The
+     * successors of an event are in the order of their positions. <br />
+     * <br />
+     * The events of every process are swept once per process, so finding the
+     * first event of every process that succeeds each event takes O(n P) time
+     * for n events and P processes. A direct successor must be one of these
+     * (at most P) first events, and one that none of the others precedes.
+     * Comparing every pair of these candidates makes the total time O(n P^2),
+     * against O(n^2) for the pairwise comparison of all events.
+     */
+    public List<List<EventNode>> getDirectSuccessors() {
+        int numProcesses = processEvents.length;
+        List<List<EventNode>> successors = new ArrayList<List<EventNode>>(
+                events.size());
+        for (int i = 0; i < events.size(); i++) {
+            successors.add(null);
+        }
+
+        int[] next = new int[numProcesses];
+        int[] candidates = new int[numProcesses];
+        for (int p = 0; p < numProcesses; p++) {
+            Arrays.fill(next, 0);
+            for (int k = 1; k <= processEvents[p].length; k++) {
+                int i = processEvents[p][k - 1];
+
+                // The first event of every process that knows of event i.
+                int numCandidates = 0;
+                for (int q = 0; q < numProcesses; q++) {
+                    int[] local = processEvents[q];
+                    if (q == p) {
+                        next[q] = k;
+                    } else {
+                        while (next[q] < local.length
+                                && clocks[local[next[q]]][p] < k) {
+                            next[q]++;
+                        }
+                    }
+                    if (next[q] < local.length) {
+                        candidates[numCandidates++] = local[next[q]];
+                    }
+                }
+
+                List<Integer> direct = new ArrayList<Integer>();
+                for (int c = 0; c < numCandidates; c++) {
+                    boolean directSuccessor = true;
+                    for (int d = 0; d < numCandidates; d++) {
+                        if (lessThan(candidates[d], candidates[c])) {
+                            directSuccessor = false;
+                            break;
+                        }
+                    }
+                    if (directSuccessor) {
+                        direct.add(candidates[c]);
+                    }
+                }
+                Collections.sort(direct);
+                List<EventNode> directEvents = new ArrayList<EventNode>(
+                        direct.size());
+                for (int j : direct) {
+                    directEvents.add(events.get(j));
+                }
+                successors.set(i, directEvents);
+            }
+        }
+        return successors;
+    }
+}